@@ -31,11 +31,11 @@ import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
-import org.apache.tools.ant.ProjectHelper;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Property;
 import org.apache.tools.ant.util.FileUtils;
 
+import net.sf.antcontrib.util.CachingProjectHelper;
 import net.sf.antcontrib.util.StringTools;
 
 /**
@@ -103,7 +103,7 @@ public class AntCallBack extends Task {
     /**
      * the temporary project created to run the build file.
      */
-    private Project newProject;
+    private LayeredProject newProject;
 
     /**
      * The stream to which output is to be written.
@@ -137,7 +137,7 @@ public class AntCallBack extends Task {
      * Creates a Project instance for the project to call.
      */
     public void init() {
-        newProject = new Project();
+        newProject = new LayeredProject(getProject());
         newProject.setJavaVersionProperty();
         newProject.addTaskDefinition("property",
                 getProject().getTaskDefinitions()
@@ -244,23 +244,10 @@ public class AntCallBack extends Task {
             // b/c we won't inherit them.
             newProject.setSystemProperties();
         } else {
-            // set all properties from calling project
-            Hashtable<String, Object> props = getProject().getProperties();
-            e = props.keys();
-            while (e.hasMoreElements()) {
-                String arg = e.nextElement();
-                if ("basedir".equals(arg) || "ant.file".equals(arg)) {
-                    // basedir and ant.file get special treatment in execute()
-                    continue;
-                }
-
-                String value = props.get(arg).toString();
-                // don't re-set user properties, avoid the warning message
-                if (newProject.getProperty(arg) == null) {
-                    // no user property
-                    newProject.setNewProperty(arg, value);
-                }
-            }
+            // take the properties of the calling project as they are now,
+            // rather than copying them; basedir and ant.file get set in
+            // execute()
+            newProject.inheritProperties();
         }
     }
 
@@ -339,7 +326,7 @@ public class AntCallBack extends Task {
                             + " in build file " + antFile,
                     Project.MSG_VERBOSE);
             newProject.setUserProperty("ant.file", antFile);
-            ProjectHelper.configureProject(newProject, new File(antFile));
+            CachingProjectHelper.configureProject(newProject, new File(antFile));
 
             if (target == null) {
                 target = newProject.getDefaultTarget();
@@ -44,22 +44,47 @@ public class AntFetch extends Ant {
      */
     private ProjectDelegate fakeProject = null;
 
+    /**
+     * Field realProject.
+     */
+    private Project realProject = null;
+
+    /**
+     * Field inheritAll.
+     */
+    private boolean inheritAll = true;
+
     /**
      * Method setProject.
      *
      * @param realProject Project
      */
     public void setProject(Project realProject) {
+        this.realProject = realProject;
         fakeProject = new ProjectDelegate(realProject);
+        fakeProject.setLayered(true);
         super.setProject(fakeProject);
     }
 
+    /**
+     * Method setInheritAll.
+     *
+     * @param value boolean
+     */
+    public void setInheritAll(boolean value) {
+        super.setInheritAll(value);
+        inheritAll = value;
+    }
+
     /**
      * Do the execution.
      *
      * @throws BuildException Description of the Exception
      */
     public void execute() throws BuildException {
+        // the layered sub-project reads the properties through, as the
+        // delegate does not let them be copied
+        fakeProject.inheritProperties(inheritAll ? realProject.getProperties() : null);
         super.execute();
 
         // copy back the props if possible
@@ -18,11 +18,17 @@ package net.sf.antcontrib.logic;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Executor;
+import org.apache.tools.ant.MagicNames;
 import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.TaskContainer;
 import org.apache.tools.ant.taskdefs.Ant;
@@ -33,9 +39,16 @@ import org.apache.tools.ant.types.Mapper;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.util.FileNameMapper;
 
+import net.sf.antcontrib.process.ExecutorKind;
+import net.sf.antcontrib.process.ThreadPoolType;
+import net.sf.antcontrib.util.AdaptiveConcurrency;
+import net.sf.antcontrib.util.IterationMetrics;
+import net.sf.antcontrib.util.IterationTracker;
+import net.sf.antcontrib.util.OrderedOutput;
+import net.sf.antcontrib.util.PropertyRollback;
 import net.sf.antcontrib.util.ThreadPool;
-import net.sf.antcontrib.util.ThreadPoolThread;
 import net.sf.antcontrib.util.StringTools;
+import net.sf.antcontrib.util.WorkQueue;
 
 /**
  * Task definition for the foreach task.  The foreach task iterates
@@ -132,6 +145,62 @@ public class ForEach extends Task {
      */
     private int maxThreads;
 
+    /**
+     * Field autoThreads.
+     */
+    private boolean autoThreads = false;
+
+    /**
+     * Field lightweight.
+     */
+    private boolean lightweight = false;
+
+    /**
+     * Field template.
+     * The project every target call runs in, in lightweight mode.
+     */
+    private Project template;
+
+    /**
+     * Field rollback.
+     */
+    private PropertyRollback rollback;
+
+    /**
+     * Field threadPoolRefId.
+     */
+    private String threadPoolRefId;
+
+    /**
+     * Field executorKind.
+     */
+    private ExecutorKind executorKind;
+
+    /**
+     * Field orderedOutput.
+     */
+    private boolean orderedOutput;
+
+    /**
+     * Field metricsPrefix.
+     */
+    private String metricsPrefix;
+
+    /**
+     * Field metricsReport.
+     */
+    private File metricsReport;
+
+    /**
+     * Field metricsSlowest.
+     */
+    private int metricsSlowest = 5;
+
+    /**
+     * Field metrics.
+     */
+    private IterationMetrics metrics;
+
     /**
      * Field mapper.
      */
@@ -157,57 +226,204 @@ public class ForEach extends Task {
     /**
      * Method executeParallel.
      *
-     * @param tasks List&lt;CallTarget&gt;
-     */
-    private void executeParallel(List<CallTarget> tasks) {
-        ThreadPool pool = new ThreadPool(maxThreads);
-        Runnable r = null;
-        List<ThreadPoolThread> threads = new ArrayList<ThreadPoolThread>();
-
-        // start each task in it's own thread, using the
-        // pool to ensure that we don't exceed the maximum
-        // amount of threads
-        for (final Task task : tasks) {
-            // Create the Runnable object
-            r = new Runnable() {
-                public void run() {
-                    task.execute();
-                }
-            };
-
-            // Get a thread, and start the task.
-            // If there is no thread available, this will
-            // block until one becomes available
-            try {
-                ThreadPoolThread tpt = pool.borrowThread();
-                tpt.setRunnable(r);
-                tpt.start();
-                threads.add(tpt);
-            } catch (Exception ex) {
-                throw new BuildException(ex);
+     * @param tasks  List&lt;Task&gt;
+     * @param values List&lt;Object&gt;
+     */
+    private void executeParallel(List<Task> tasks, List<Object> values) {
+        if (threadPoolRefId != null && executorKind != null) {
+            throw new BuildException("The executor attribute cannot be"
+                    + " used together with threadpoolrefid");
+        }
+        OrderedOutput output = orderedOutput ? new OrderedOutput(getProject()) : null;
+        try {
+            List<Runnable> runnables = new ArrayList<Runnable>();
+            final long queued = System.nanoTime();
+            for (int i = 0; i < tasks.size(); i++) {
+                final Task task = tasks.get(i);
+                final Object value = values.get(i);
+                final OrderedOutput.Slot slot = output == null ? null : output.newSlot();
+                runnables.add(new Runnable() {
+                    public void run() {
+                        if (slot != null) {
+                            slot.begin();
+                        }
+                        try {
+                            runMeasured(task, value, queued);
+                        } finally {
+                            if (slot != null) {
+                                slot.end();
+                            }
+                        }
+                    }
+                });
+            }
+            if (threadPoolRefId != null) {
+                executeOnThreadPool(runnables);
+            } else if (autoThreads) {
+                executeOnAdaptivePool(runnables);
+            } else {
+                executeOnPrivatePool(runnables);
+            }
+        } finally {
+            if (output != null) {
+                output.close();
             }
+        }
+    }
+
+    /**
+     * Method executeOnPrivatePool.
+     * Runs the tasks on threads of their own, at most maxThreads of
+     * them at once.
+     *
+     * @param runnables List&lt;Runnable&gt;
+     */
+    private void executeOnPrivatePool(List<Runnable> runnables) {
+        ThreadPool pool = new ThreadPool(maxThreads,
+                ExecutorKind.getThreadFactory(executorKind, this));
+        IterationTracker tracker = new IterationTracker();
 
+        // the first of the tasks to fail cancels the others
+        try {
+            pool.invokeAll(runnables, tracker);
+        } catch (ExecutionException ex) {
+            throw parallelFailure(ex.getCause(), tracker);
+        } catch (InterruptedException ex) {
+            throw new BuildException(ex);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Method executeOnThreadPool.
+     * Runs the tasks on the threads of the referenced thread pool,
+     * at most maxThreads of them at once.
+     *
+     * @param runnables List&lt;Runnable&gt;
+     */
+    private void executeOnThreadPool(List<Runnable> runnables) {
+        ThreadPoolType pool = ThreadPoolType.getThreadPool(getProject(), threadPoolRefId);
+        if (!autoThreads) {
+            executeOnQueue(pool.createWorkQueue(maxThreads, maxThreads), null,
+                    runnables);
+            return;
+        }
+        int max = pool.getMaxThreads();
+        WorkQueue queue = pool.createWorkQueue(
+                AdaptiveConcurrency.initialParallelism(max), max);
+        executeOnQueue(queue, new AdaptiveConcurrency(queue, max, this), runnables);
+    }
+
+    /**
+     * Method executeOnAdaptivePool.
+     * Runs the tasks on threads of their own, adapting the number of
+     * them running at once to the targets.
+     *
+     * @param runnables List&lt;Runnable&gt;
+     */
+    private void executeOnAdaptivePool(List<Runnable> runnables) {
+        int max = AdaptiveConcurrency.maximumParallelism();
+        ThreadPool pool = new ThreadPool(max,
+                ExecutorKind.getThreadFactory(executorKind, this));
+        try {
+            WorkQueue queue = new WorkQueue(pool.getExecutor(),
+                    AdaptiveConcurrency.initialParallelism(max), max, false);
+            executeOnQueue(queue, new AdaptiveConcurrency(queue, max, this),
+                    runnables);
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        // Wait for all threads to finish before we
-        // are allowed to return.
-        for (Thread t : threads) {
-            if (t.isAlive()) {
-                try {
-                    t.join();
-                } catch (InterruptedException ex) {
-                    throw new BuildException(ex);
+    /**
+     * Method executeOnQueue.
+     * Runs the tasks on a work queue, the first of them to fail
+     * cancelling the others.
+     *
+     * @param queue       WorkQueue
+     * @param concurrency AdaptiveConcurrency, null for a fixed
+     *                    number of threads
+     * @param runnables   List&lt;Runnable&gt;
+     */
+    private void executeOnQueue(WorkQueue queue,
+                                final AdaptiveConcurrency concurrency,
+                                List<Runnable> runnables) {
+        final IterationTracker tracker = new IterationTracker();
+        final BuildException[] failure = new BuildException[1];
+        int submitted = 0;
+        try {
+            for (final Runnable runnable : runnables) {
+                if (tracker.isStopped()) {
+                    break;
                 }
+                queue.submit(new Runnable() {
+                    public void run() {
+                        if (!tracker.begin()) {
+                            return;
+                        }
+                        boolean ok = false;
+                        try {
+                            runnable.run();
+                            ok = true;
+                        } catch (BuildException ex) {
+                            if (tracker.fail()) {
+                                failure[0] = ex;
+                            }
+                        } catch (RuntimeException ex) {
+                            if (tracker.fail()) {
+                                failure[0] = new BuildException(ex);
+                            }
+                        } finally {
+                            tracker.end(ok);
+                            if (concurrency != null) {
+                                concurrency.taskCompleted();
+                            }
+                        }
+                    }
+                });
+                submitted++;
             }
+            tracker.skipped(runnables.size() - submitted, false);
+            queue.await();
+        } catch (InterruptedException ex) {
+            tracker.cancel();
+            throw new BuildException(ex);
+        }
+        if (failure[0] != null) {
+            throw parallelFailure(failure[0], tracker);
         }
     }
 
+    /**
+     * Method parallelFailure.
+     *
+     * @param cause   the first failure
+     * @param tracker IterationTracker
+     * @return a BuildException reporting the failure and the fate of
+     *         the other targets
+     */
+    private BuildException parallelFailure(Throwable cause,
+                                           IterationTracker tracker) {
+        return new BuildException(cause.getMessage()
+                + " [parallel targets: " + tracker + "]", cause,
+                cause instanceof BuildException
+                        ? ((BuildException) cause).getLocation() : getLocation());
+    }
+
     /**
      * Method executeSequential.
      *
-     * @param tasks List&lt;CallTarget&gt;
+     * @param tasks  List&lt;Task&gt;
+     * @param values List&lt;Object&gt;
      */
-    private void executeSequential(List<CallTarget> tasks) {
+    private void executeSequential(List<Task> tasks, List<Object> values) {
+        if (metrics != null) {
+            for (int i = 0; i < tasks.size(); i++) {
+                runMeasured(tasks.get(i), values.get(i), System.nanoTime());
+            }
+            return;
+        }
         TaskContainer tc = (TaskContainer) getProject().createTask("sequential");
         for (Task t : tasks) {
             tc.addTask(t);
@@ -259,10 +475,28 @@ public class ForEach extends Task {
             }
         }
 
-        List<CallTarget> tasks = new ArrayList<CallTarget>();
+        boolean inParallel = parallel && (autoThreads || maxThreads > 1);
+        if (lightweight && inParallel) {
+            log("Lightweight target calls cannot run in parallel,"
+                    + " using antcall", Project.MSG_VERBOSE);
+        }
+        boolean reuse = lightweight && !inParallel && !values.isEmpty();
+        if (reuse) {
+            createTemplate();
+        }
+
+        List<Task> tasks = new ArrayList<Task>();
+        // taken once, so that every call sees the properties as they are
+        // when the loop starts, as antcall would
+        Hashtable<String, Object> inherited = inheritAll && !reuse
+                ? getProject().getProperties() : null;
 
         for (Object val : values) {
-            CallTarget ct = createCallTarget();
+            if (reuse) {
+                tasks.add(new TemplateCall(val));
+                continue;
+            }
+            CallTarget ct = createCallTarget(inherited);
             Property p = ct.createParam();
             p.setName(param);
 
@@ -275,13 +509,112 @@ public class ForEach extends Task {
             tasks.add(ct);
         }
 
-        if (parallel && maxThreads > 1) {
-            executeParallel(tasks);
-        } else {
-            executeSequential(tasks);
+        metrics = metricsPrefix != null || metricsReport != null
+                ? new IterationMetrics() : null;
+        try {
+            if (inParallel) {
+                executeParallel(tasks, values);
+            } else {
+                executeSequential(tasks, values);
+            }
+        } finally {
+            template = null;
+            rollback = null;
+            reportMetrics();
         }
     }
 
+    /**
+     * Method createTemplate.
+     * Sets up, once for the whole loop, the project the target calls
+     * run in: the build file is read and the properties, references
+     * and params are passed on exactly as antcall would.
+     */
+    private void createTemplate() {
+        TemplateAnt ant = new TemplateAnt(this);
+        ant.init();
+        ant.setAntfile(getProject().getProperty(MagicNames.ANT_FILE));
+        ant.setInheritAll(inheritAll);
+        ant.setInheritRefs(inheritRefs);
+        ant.setTarget(target);
+        for (Property param : params) {
+            copyParam(param, ant.createProperty());
+        }
+        for (Ant.Reference r : references) {
+            ant.addReference(r);
+        }
+        template = ant.createTemplate();
+        rollback = new PropertyRollback(template);
+    }
+
+    /**
+     * Method callTemplate.
+     * Calls the target in the template project, then rolls back the
+     * properties it set.
+     *
+     * @param value the value of the param
+     */
+    private void callTemplate(Object value) {
+        if (getProject().getUserProperty(param) == null) {
+            template.setInheritedProperty(param, value instanceof File
+                    ? ((File) value).getAbsolutePath() : (String) value);
+        }
+        Vector<String> targets = new Vector<String>();
+        targets.add(target);
+        BuildException failure = null;
+        template.fireSubBuildStarted();
+        try {
+            template.executeTargets(targets);
+        } catch (BuildException ex) {
+            failure = ProjectHelper.addLocationToBuildException(ex, getLocation());
+            throw failure;
+        } finally {
+            template.fireSubBuildFinished(failure);
+            rollback.rollback();
+        }
+    }
+
+    /**
+     * Method runMeasured.
+     * Runs a task, timing it if metrics are collected.
+     *
+     * @param task   Task
+     * @param value  the value the task is run for
+     * @param queued the time the task was queued
+     */
+    private void runMeasured(Task task, Object value, long queued) {
+        if (metrics == null) {
+            task.perform();
+            return;
+        }
+        long start = metrics.begin();
+        String outcome = IterationMetrics.FAILED;
+        try {
+            task.perform();
+            outcome = IterationMetrics.OK;
+        } finally {
+            metrics.end(value.toString(), queued, start, outcome);
+        }
+    }
+
+    /**
+     * Method reportMetrics.
+     * Publishes the timings of the targets, if asked for.
+     */
+    private void reportMetrics() {
+        if (metrics == null) {
+            return;
+        }
+        metrics.finish();
+        if (metricsPrefix != null) {
+            metrics.publish(getProject(), metricsPrefix, metricsSlowest);
+        }
+        if (metricsReport != null) {
+            metrics.writeReport(metricsReport, metricsSlowest);
+        }
+        metrics = null;
+    }
+
     /**
      * Method setTrim.
      *
@@ -356,14 +689,89 @@ public class ForEach extends Task {
         this.inheritRefs = b;
     }
 
+    /**
+     * Call the target in one project set up for the whole loop,
+     * instead of setting up a new project for every value. The
+     * properties a call sets are rolled back before the next one.
+     *
+     * @param lightweight boolean
+     */
+    public void setLightweight(boolean lightweight) {
+        this.lightweight = lightweight;
+    }
+
     /**
      * Set the maximum amount of threads we're going to allow
-     * at once to execute.
+     * at once to execute, or "auto" to adapt the number of threads
+     * to the targets.
+     *
+     * @param maxThreads String
+     */
+    public void setMaxThreads(String maxThreads) {
+        autoThreads = AdaptiveConcurrency.AUTO.equalsIgnoreCase(maxThreads);
+        if (autoThreads) {
+            return;
+        }
+        try {
+            this.maxThreads = Integer.parseInt(maxThreads.trim());
+        } catch (NumberFormatException e) {
+            throw new BuildException("Illegal value for maxThreads " + maxThreads
+                    + " it should be a number or auto");
+        }
+    }
+
+    /**
+     * Method setThreadPoolRefId.
+     *
+     * @param threadPoolRefId String
+     */
+    public void setThreadPoolRefId(String threadPoolRefId) {
+        this.threadPoolRefId = threadPoolRefId;
+    }
+
+    /**
+     * Method setMetricsPrefix.
+     *
+     * @param metricsPrefix String
+     */
+    public void setMetricsPrefix(String metricsPrefix) {
+        this.metricsPrefix = metricsPrefix;
+    }
+
+    /**
+     * Method setMetricsReport.
+     *
+     * @param metricsReport File
+     */
+    public void setMetricsReport(File metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    /**
+     * Method setMetricsSlowest.
+     *
+     * @param metricsSlowest int
+     */
+    public void setMetricsSlowest(int metricsSlowest) {
+        this.metricsSlowest = metricsSlowest;
+    }
+
+    /**
+     * Method setOrderedOutput.
+     *
+     * @param orderedOutput boolean
+     */
+    public void setOrderedOutput(boolean orderedOutput) {
+        this.orderedOutput = orderedOutput;
+    }
+
+    /**
+     * Method setExecutor.
      *
-     * @param maxThreads int
+     * @param executorKind ExecutorKind
      */
-    public void setMaxThreads(int maxThreads) {
-        this.maxThreads = maxThreads;
+    public void setExecutor(ExecutorKind executorKind) {
+        this.executorKind = executorKind;
     }
 
     /**
@@ -422,39 +830,31 @@ public class ForEach extends Task {
     /**
      * Method createCallTarget.
      *
+     * @param inherited the properties of the project, null unless
+     *                  inheritall is set
      * @return CallTarget
      */
-    private CallTarget createCallTarget() {
+    private CallTarget createCallTarget(Hashtable<String, Object> inherited) {
         CallTarget ct = (CallTarget) getProject().createTask("antcall");
         ct.setOwningTarget(getOwningTarget());
-        ct.init();
+        if (inheritAll) {
+            // the ant task antcall creates in init() sets the sub-project
+            // up through a delegate, which has it read the properties
+            // through instead of copying them
+            ProjectDelegate delegate = new ProjectDelegate(getProject());
+            delegate.setLayered(true);
+            ct.setProject(delegate);
+            ct.init();
+            ct.setProject(getProject());
+            ((LayeredProject) delegate.getSubproject()).inheritProperties(inherited);
+        } else {
+            ct.init();
+        }
         ct.setTarget(target);
         ct.setInheritAll(inheritAll);
         ct.setInheritRefs(inheritRefs);
         for (Property param : params) {
-            Property toSet = ct.createParam();
-            toSet.setName(param.getName());
-            if (param.getValue() != null) {
-                toSet.setValue(param.getValue());
-            }
-            if (param.getFile() != null) {
-                toSet.setFile(param.getFile());
-            }
-            if (param.getResource() != null) {
-                toSet.setResource(param.getResource());
-            }
-            if (param.getPrefix() != null) {
-                toSet.setPrefix(param.getPrefix());
-            }
-            if (param.getRefid() != null) {
-                toSet.setRefid(param.getRefid());
-            }
-            if (param.getEnvironment() != null) {
-                toSet.setEnvironment(param.getEnvironment());
-            }
-            if (param.getClasspath() != null) {
-                toSet.setClasspath(param.getClasspath());
-            }
+            copyParam(param, ct.createParam());
         }
 
         for (Ant.Reference r : references) {
@@ -464,6 +864,111 @@ public class ForEach extends Task {
         return ct;
     }
 
+    /**
+     * Method copyParam.
+     *
+     * @param param Property
+     * @param toSet Property
+     */
+    private void copyParam(Property param, Property toSet) {
+        toSet.setName(param.getName());
+        if (param.getValue() != null) {
+            toSet.setValue(param.getValue());
+        }
+        if (param.getFile() != null) {
+            toSet.setFile(param.getFile());
+        }
+        if (param.getResource() != null) {
+            toSet.setResource(param.getResource());
+        }
+        if (param.getPrefix() != null) {
+            toSet.setPrefix(param.getPrefix());
+        }
+        if (param.getRefid() != null) {
+            toSet.setRefid(param.getRefid());
+        }
+        if (param.getEnvironment() != null) {
+            toSet.setEnvironment(param.getEnvironment());
+        }
+        if (param.getClasspath() != null) {
+            toSet.setClasspath(param.getClasspath());
+        }
+    }
+
+    /**
+     * A call of the target for one value, in the template project.
+     * Public so that Ant can run it as a task.
+     */
+    public class TemplateCall extends Task {
+        /**
+         * Field value.
+         */
+        private final Object value;
+
+        /**
+         * Constructor for TemplateCall.
+         *
+         * @param value Object
+         */
+        TemplateCall(Object value) {
+            this.value = value;
+            bindToOwner(ForEach.this);
+        }
+
+        /**
+         * Method execute.
+         *
+         * @throws BuildException if the target fails
+         */
+        public void execute() throws BuildException {
+            callTemplate(value);
+        }
+    }
+
+    /**
+     * The ant task that antcall uses, made to set up the project
+     * without running the target in it.
+     */
+    private static class TemplateAnt extends Ant {
+        /**
+         * Field NO_TARGETS.
+         */
+        private static final Executor NO_TARGETS = new Executor() {
+            public void executeTargets(Project project, String[] targetNames) {
+            }
+
+            public Executor getSubProjectExecutor() {
+                return this;
+            }
+        };
+
+        /**
+         * Constructor for TemplateAnt.
+         *
+         * @param owner Task
+         */
+        TemplateAnt(Task owner) {
+            super(owner);
+        }
+
+        /**
+         * Method createTemplate.
+         *
+         * @return the project, set up for the target to run in
+         */
+        Project createTemplate() {
+            Project project = getNewProject();
+            Executor executor = project.getExecutor();
+            project.setExecutor(NO_TARGETS);
+            try {
+                execute();
+            } finally {
+                project.setExecutor(executor);
+            }
+            return project;
+        }
+    }
+
     /**
      * Method handleOutput.
      *
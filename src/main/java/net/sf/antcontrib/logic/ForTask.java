@@ -15,24 +15,36 @@
  */
 package net.sf.antcontrib.logic;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.MacroDef;
 import org.apache.tools.ant.taskdefs.MacroInstance;
-import org.apache.tools.ant.taskdefs.Parallel;
-import org.apache.tools.ant.types.Resource;
 import org.apache.tools.ant.types.ResourceCollection;
 
+import net.sf.antcontrib.process.ExecutorKind;
+import net.sf.antcontrib.process.ThreadPoolType;
+import net.sf.antcontrib.util.AdaptiveConcurrency;
+import net.sf.antcontrib.util.IterationMetrics;
+import net.sf.antcontrib.util.IterationTracker;
+import net.sf.antcontrib.util.OrderedOutput;
 import net.sf.antcontrib.util.StringTools;
+import net.sf.antcontrib.util.ThreadPool;
+import net.sf.antcontrib.util.WorkQueue;
 
 /**
  * Task definition for the for task.  This is based on
@@ -90,9 +102,60 @@ public class ForTask extends Task {
     private Integer threadCount;
 
     /**
-     * Field parallelTasks.
+     * Field autoThreads.
+     * Set if the number of threads adapts to the iterations.
      */
-    private Parallel parallelTasks;
+    private boolean autoThreads = false;
+
+    /**
+     * Field concurrency.
+     */
+    private AdaptiveConcurrency concurrency;
+
+    /**
+     * Field threadPoolRefId.
+     */
+    private String threadPoolRefId;
+
+    /**
+     * Field executorKind.
+     */
+    private ExecutorKind executorKind;
+
+    /**
+     * Field executor.
+     * The threads of this loop, null when using a shared thread pool.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Field workQueue.
+     * Holds the iterations waiting for a thread when executing in parallel.
+     */
+    private WorkQueue workQueue;
+
+    /**
+     * Field failure.
+     * The first failure of a parallel iteration.
+     */
+    private volatile BuildException failure;
+
+    /**
+     * Field orderedOutput.
+     */
+    private boolean orderedOutput = false;
+
+    /**
+     * Field output.
+     * Keeps the output of parallel iterations in order.
+     */
+    private OrderedOutput output;
+
+    /**
+     * Field tracker.
+     * Cancels the running iterations when one of them fails.
+     */
+    private IterationTracker tracker;
 
     /**
      * Field begin.
@@ -114,6 +177,58 @@ public class ForTask extends Task {
      */
     private final List<ResourceCollection> resourceCollections = new ArrayList<ResourceCollection>();
 
+    /**
+     * Field batchSize.
+     */
+    private int batchSize = 1;
+
+    /**
+     * Field batchSeparator.
+     */
+    private String batchSeparator = ",";
+
+    /**
+     * Field batch.
+     * The values collected for the next iteration when batching.
+     */
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * Field batchCount.
+     * The number of values in the batch.
+     */
+    private int batchCount = 0;
+
+    /**
+     * Field distinct.
+     */
+    private boolean distinct = false;
+
+    /**
+     * Field limit.
+     */
+    private int limit = -1;
+
+    /**
+     * Field metricsPrefix.
+     */
+    private String metricsPrefix;
+
+    /**
+     * Field metricsReport.
+     */
+    private File metricsReport;
+
+    /**
+     * Field metricsSlowest.
+     */
+    private int metricsSlowest = 5;
+
+    /**
+     * Field metrics.
+     */
+    private volatile IterationMetrics metrics;
+
     /**
      * Field taskCount.
      */
@@ -150,16 +265,146 @@ public class ForTask extends Task {
 
     /**
      * Set the maximum amount of threads we're going to allow
-     * to execute in parallel.
+     * to execute in parallel, or "auto" to start with one thread per
+     * processor and add threads for as long as that raises the number
+     * of iterations completed per second.
      *
-     * @param threadCount the number of threads to use
+     * @param threadCount the number of threads to use, or "auto"
      */
-    public void setThreadCount(int threadCount) {
-        if (threadCount < 1) {
+    public void setThreadCount(String threadCount) {
+        autoThreads = AdaptiveConcurrency.AUTO.equalsIgnoreCase(threadCount);
+        if (autoThreads) {
+            this.threadCount = null;
+            return;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(threadCount.trim());
+        } catch (NumberFormatException e) {
             throw new BuildException("Illegal value for threadCount " + threadCount
+                    + " it should be a number or auto");
+        }
+        if (count < 1) {
+            throw new BuildException("Illegal value for threadCount " + count
+                    + " it should be > 0");
+        }
+        this.threadCount = count;
+    }
+
+    /**
+     * Set the id of a <code>&lt;threadpool&gt;</code> to run the
+     * iterations on when executing in parallel. The threadCount, if
+     * set, further limits the number of threads this loop uses.
+     *
+     * @param threadPoolRefId the id of the thread pool
+     */
+    public void setThreadPoolRefId(String threadPoolRefId) {
+        this.threadPoolRefId = threadPoolRefId;
+    }
+
+    /**
+     * Set the kind of threads to run the iterations on when executing
+     * in parallel, "platform" (the default) or "virtual". Virtual
+     * threads suit iterations that mostly wait on I/O; on a JVM
+     * without them platform threads are used instead.
+     *
+     * @param executorKind the kind of threads
+     */
+    public void setExecutor(ExecutorKind executorKind) {
+        this.executorKind = executorKind;
+    }
+
+    /**
+     * Set the number of consecutive values to pass to each iteration.
+     * The values of a batch are joined with the batch separator into
+     * a single param value, so the sequential runs once per batch
+     * rather than once per value. In parallel mode the batches are
+     * what is handed to the threads.
+     *
+     * @param batchSize the number of values per iteration
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new BuildException("Illegal value for batchsize " + batchSize
                     + " it should be > 0");
         }
-        this.threadCount = threadCount;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the string put between the values of a batch.
+     * Use ${path.separator} to get a batch of files as a path.
+     *
+     * @param batchSeparator the separator, the default is ",".
+     */
+    public void setBatchSeparator(String batchSeparator) {
+        this.batchSeparator = batchSeparator;
+    }
+
+    /**
+     * Set the distinct attribute. If true, a value that has already
+     * been iterated over is skipped. Only the distinct values are
+     * remembered, never the whole list.
+     *
+     * @param distinct if true, skip repeated values.
+     */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    /**
+     * Set the maximum number of values to iterate over. The sources
+     * are not read beyond the limit.
+     *
+     * @param limit the maximum number of values.
+     */
+    public void setLimit(int limit) {
+        if (limit < 0) {
+            throw new BuildException("Illegal value for limit " + limit
+                    + " it should be >= 0");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Set the orderedoutput attribute. If true, the log output of
+     * parallel iterations is not interleaved but comes out iteration
+     * by iteration, in the order of the values.
+     *
+     * @param orderedOutput if true, keep the output in order.
+     */
+    public void setOrderedOutput(boolean orderedOutput) {
+        this.orderedOutput = orderedOutput;
+    }
+
+    /**
+     * Time the iterations, and set properties with this prefix to
+     * a summary of the timings when the loop is over.
+     *
+     * @param metricsPrefix the prefix of the property names
+     */
+    public void setMetricsPrefix(String metricsPrefix) {
+        this.metricsPrefix = metricsPrefix;
+    }
+
+    /**
+     * Time the iterations, and write a report of the timings when the
+     * loop is over: a line per iteration if the file name ends in
+     * .csv, a summary in XML otherwise.
+     *
+     * @param metricsReport the report file
+     */
+    public void setMetricsReport(File metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    /**
+     * Set the number of slowest iterations to name in the metrics.
+     *
+     * @param metricsSlowest the number of iterations, the default is 5.
+     */
+    public void setMetricsSlowest(int metricsSlowest) {
+        this.metricsSlowest = metricsSlowest;
     }
 
     /**
@@ -258,13 +503,6 @@ public class ForTask extends Task {
      * for each iteration a macrodef instance.
      */
     public void execute() {
-        if (parallel) {
-            parallelTasks = (Parallel) getProject().createTask("parallel");
-            parallelTasks.setFailOnAny(!keepgoing);
-            if (threadCount != null) {
-                parallelTasks.setThreadCount(threadCount);
-            }
-        }
         if (list == null && resourceCollections.isEmpty() && hasIterators.size() == 0
                 && end == null) {
             throw new BuildException(
@@ -290,37 +528,307 @@ public class ForTask extends Task {
                 throw new BuildException("end <= begin, step needs to be < 0");
             }
         }
-        doTheTasks();
+        metrics = metricsPrefix != null || metricsReport != null
+                ? new IterationMetrics() : null;
         if (parallel) {
-            parallelTasks.perform();
+            startWorkers();
+        }
+        try {
+            doTheTasks();
+        } finally {
+            try {
+                if (parallel) {
+                    stopWorkers();
+                }
+            } finally {
+                reportMetrics();
+            }
+        }
+    }
+
+    /**
+     * Method reportMetrics.
+     * Publishes the timings of the iterations, if asked for.
+     */
+    private void reportMetrics() {
+        if (metrics == null) {
+            return;
+        }
+        metrics.finish();
+        if (metricsPrefix != null) {
+            metrics.publish(getProject(), metricsPrefix, metricsSlowest);
+        }
+        if (metricsReport != null) {
+            metrics.writeReport(metricsReport, metricsSlowest);
+        }
+        metrics = null;
+    }
+
+    /**
+     * Method startWorkers.
+     * Creates the queue that the workers drain. The queue holds at
+     * most threadCount iterations, so memory stays flat however many
+     * values there are; without a threadCount, four threads per
+     * processor are used.
+     */
+    private void startWorkers() {
+        failure = null;
+        tracker = new IterationTracker();
+        int parallelism = threadCount == null ? 0 : threadCount;
+        int max = parallelism;
+        if (threadPoolRefId != null) {
+            if (executorKind != null) {
+                throw new BuildException("The executor attribute cannot be"
+                        + " used together with threadpoolrefid");
+            }
+            ThreadPoolType pool = ThreadPoolType.getThreadPool(getProject(), threadPoolRefId);
+            if (parallelism == 0) {
+                max = pool.getMaxThreads();
+                parallelism = autoThreads
+                        ? AdaptiveConcurrency.initialParallelism(max) : max;
+            }
+            workQueue = pool.createWorkQueue(parallelism, max);
+        } else {
+            if (autoThreads) {
+                max = AdaptiveConcurrency.maximumParallelism();
+                parallelism = AdaptiveConcurrency.initialParallelism(max);
+            } else if (parallelism == 0) {
+                max = AdaptiveConcurrency.maximumParallelism();
+                parallelism = max;
+            }
+            executor = new ThreadPool(max,
+                    ExecutorKind.getThreadFactory(executorKind, this)).getExecutor();
+            workQueue = new WorkQueue(executor, parallelism, max, false);
+        }
+        concurrency = autoThreads
+                ? new AdaptiveConcurrency(workQueue, max, this) : null;
+        if (orderedOutput) {
+            output = new OrderedOutput(getProject());
+        }
+    }
+
+    /**
+     * Method stopWorkers.
+     * Releases the threads of this loop.
+     */
+    private void stopWorkers() {
+        workQueue = null;
+        concurrency = null;
+        try {
+            shutdownExecutor();
+        } finally {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * Method shutdownExecutor.
+     * Waits for the threads of this loop to finish.
+     */
+    private void shutdownExecutor() {
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log("Waiting for parallel iterations to finish", Project.MSG_DEBUG);
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new BuildException("Parallel execution interrupted.");
+        } finally {
+            executor = null;
         }
     }
 
+    /**
+     * Method submit.
+     * Queues one iteration, blocking while the work queue is full.
+     *
+     * @param val String
+     */
+    private void submit(final String val) {
+        try {
+            final OrderedOutput.Slot slot = output == null ? null : output.newSlot();
+            final long queued = System.nanoTime();
+            workQueue.submit(new Runnable() {
+                public void run() {
+                    if (slot != null) {
+                        slot.begin();
+                    }
+                    try {
+                        runTracked(val, queued);
+                    } finally {
+                        if (slot != null) {
+                            slot.end();
+                        }
+                    }
+                }
+            });
+        } catch (InterruptedException ex) {
+            tracker.cancel();
+            Thread.currentThread().interrupt();
+            throw new BuildException("Parallel execution interrupted.");
+        }
+    }
+
+    /**
+     * Method runTracked.
+     * Runs a parallel iteration unless the loop has been stopped.
+     *
+     * @param val    String
+     * @param queued the time the iteration was queued
+     */
+    private void runTracked(String val, long queued) {
+        if (!tracker.begin()) {
+            return;
+        }
+        boolean ok = false;
+        try {
+            runMeasured(val, queued);
+            ok = true;
+        } catch (BuildException bx) {
+            iterationFailed(val, bx);
+        } catch (RuntimeException ex) {
+            iterationFailed(val, new BuildException(ex));
+        } finally {
+            tracker.end(ok);
+            if (concurrency != null) {
+                concurrency.taskCompleted();
+            }
+        }
+    }
+
+    /**
+     * Method iterationFailed.
+     * Unless we are keeping going, the first failure interrupts the
+     * other iterations; their failures are not reported.
+     *
+     * @param val String
+     * @param bx  BuildException
+     */
+    private synchronized void iterationFailed(String val, BuildException bx) {
+        if (keepgoing) {
+            log(val + ": " + bx.getMessage(), Project.MSG_ERR);
+            errorCount++;
+        } else if (tracker.fail()) {
+            failure = bx;
+        }
+    }
+
+    /**
+     * Method isStopped.
+     *
+     * @return true if a parallel iteration has failed and
+     *         no more iterations should be started
+     */
+    private boolean isStopped() {
+        return parallel && tracker.isStopped();
+    }
+
     /**
      * Method doSequentialIteration.
      *
      * @param val String
      */
     private void doSequentialIteration(String val) {
+        if (!parallel) {
+            runMeasured(val, System.nanoTime());
+        } else {
+            submit(val);
+        }
+    }
+
+    /**
+     * Method runMeasured.
+     * Runs an iteration, timing it if metrics are collected.
+     *
+     * @param val    String
+     * @param queued the time the iteration was queued
+     */
+    private void runMeasured(String val, long queued) {
+        if (metrics == null) {
+            runIteration(val);
+            return;
+        }
+        long start = metrics.begin();
+        String outcome = IterationMetrics.FAILED;
+        try {
+            runIteration(val);
+            outcome = IterationMetrics.OK;
+        } finally {
+            metrics.end(val, queued, start, outcome);
+        }
+    }
+
+    /**
+     * Method runIteration.
+     *
+     * @param val String
+     */
+    private void runIteration(String val) {
         MacroInstance instance = new MacroInstance();
         instance.setProject(getProject());
         instance.setOwningTarget(getOwningTarget());
         instance.setMacroDef(macroDef);
         instance.setDynamicAttribute(param.toLowerCase(),
                 val);
-        if (!parallel) {
-            instance.execute();
-        } else {
-            parallelTasks.addTask(instance);
-        }
+        instance.execute();
     }
 
     /**
      * Method doToken.
+     * Adds the value to the current batch, and starts an iteration
+     * once the batch is full.
+     *
+     * @param tok String
+     * @return false if no more iterations should be started
+     */
+    private boolean doToken(String tok) {
+        if (batchSize == 1) {
+            return doIteration(tok);
+        }
+        if (batchCount > 0) {
+            batch.append(batchSeparator);
+        }
+        batch.append(tok);
+        if (++batchCount < batchSize) {
+            return !isStopped();
+        }
+        return flushBatch();
+    }
+
+    /**
+     * Method flushBatch.
+     * Starts an iteration for the values collected so far, if any.
+     *
+     * @return false if no more iterations should be started
+     */
+    private boolean flushBatch() {
+        if (batchCount == 0) {
+            return true;
+        }
+        String val = batch.toString();
+        batch.setLength(0);
+        batchCount = 0;
+        return doIteration(val);
+    }
+
+    /**
+     * Method doIteration.
      *
      * @param tok String
+     * @return false if no more iterations should be started
      */
-    private void doToken(String tok) {
+    private boolean doIteration(String tok) {
+        if (isStopped()) {
+            return false;
+        }
         try {
             taskCount++;
             doSequentialIteration(tok);
@@ -332,6 +840,7 @@ public class ForTask extends Task {
                 throw bx;
             }
         }
+        return true;
     }
 
     /**
@@ -340,6 +849,8 @@ public class ForTask extends Task {
     private void doTheTasks() {
         errorCount = 0;
         taskCount = 0;
+        batch.setLength(0);
+        batchCount = 0;
 
         // Create a macro attribute
         if (macroDef.getAttributes().isEmpty()) {
@@ -348,46 +859,30 @@ public class ForTask extends Task {
             macroDef.addConfiguredAttribute(attribute);
         }
 
-        // Take Care of the list attribute
-        if (list != null) {
-            StringTokenizer st = new StringTokenizer(list, delimiter);
-
-            while (st.hasMoreTokens()) {
-                String tok = st.nextToken();
-                if (trim) {
-                    tok = StringTools.trim(tok);
-                }
-                doToken(tok);
+        // Values are produced one at a time from the list, the
+        // begin/end range, the resources and the iterators, in that
+        // order, and never collected
+        Iterator<String> values = values();
+        boolean stopped = false;
+        while (values.hasNext()) {
+            if (!doToken(values.next())) {
+                stopped = true;
+                break;
             }
         }
 
-        // Take care of the begin/end/step attributes
-        if (end != null) {
-            int iEnd = end;
-            if (step > 0) {
-                for (int i = begin; i < (iEnd + 1); i = i + step) {
-                    doToken("" + i);
-                }
-            } else {
-                for (int i = begin; i > (iEnd - 1); i = i + step) {
-                    doToken("" + i);
-                }
-            }
+        // the last, partly filled batch
+        if (!flushBatch()) {
+            stopped = true;
         }
 
-        // Take care of resources
-        for (ResourceCollection collection : resourceCollections) {
-            for (Resource resource : collection) {
-                doToken(resource.toString());
-            }
+        // the values left are not produced just to count them
+        if (stopped) {
+            tracker.skipped(1, values.hasNext());
         }
 
-        // Take care of iterators
-        for (HasIterator hasIterator : hasIterators) {
-            Iterator<Object> it = hasIterator.iterator();
-            while (it.hasNext()) {
-                doToken(it.next().toString());
-            }
+        if (parallel) {
+            awaitIterations();
         }
 
         if (keepgoing && (errorCount != 0)) {
@@ -397,6 +892,73 @@ public class ForTask extends Task {
         }
     }
 
+    /**
+     * Method values.
+     *
+     * @return a lazy iterator over the values of all the sources,
+     *         with distinct and limit applied
+     */
+    private Iterator<String> values() {
+        List<Iterable<String>> sources = new ArrayList<Iterable<String>>();
+        if (list != null) {
+            sources.add(new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new TokenValues(list, delimiter, trim);
+                }
+            });
+        }
+        if (end != null) {
+            sources.add(new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new RangeValues(begin, end, step);
+                }
+            });
+        }
+        for (final ResourceCollection collection : resourceCollections) {
+            sources.add(new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new ObjectValues(collection.iterator());
+                }
+            });
+        }
+        for (final HasIterator hasIterator : hasIterators) {
+            sources.add(new Iterable<String>() {
+                public Iterator<String> iterator() {
+                    return new ObjectValues(hasIterator.iterator());
+                }
+            });
+        }
+        Iterator<String> values = new ConcatValues(sources.iterator());
+        if (distinct) {
+            values = new DistinctValues(values);
+        }
+        if (limit >= 0) {
+            values = new LimitedValues(values, limit);
+        }
+        return values;
+    }
+
+    /**
+     * Method awaitIterations.
+     * Waits until every queued iteration has finished and rethrows
+     * the first failure, with a count of the iterations that were
+     * cancelled, unless we are keeping going.
+     */
+    private void awaitIterations() {
+        try {
+            workQueue.await();
+        } catch (InterruptedException ex) {
+            tracker.cancel();
+            Thread.currentThread().interrupt();
+            throw new BuildException("Parallel execution interrupted.");
+        }
+        if (failure != null && !keepgoing) {
+            throw new BuildException(failure.getMessage()
+                    + " [parallel iterations: " + tracker + "]",
+                    failure, failure.getLocation());
+        }
+    }
+
     /**
      * Add a Map, iterate over the values.
      *
@@ -542,4 +1104,288 @@ public class ForTask extends Task {
             }
         }
     }
+
+    /**
+     * A lazy iterator over values, computing each one when asked for.
+     */
+    private abstract static class Values implements Iterator<String> {
+        /**
+         * Field next.
+         */
+        private String next;
+
+        /**
+         * Method computeNext.
+         *
+         * @return the next value, or null if there are no more
+         */
+        protected abstract String computeNext();
+
+        /**
+         * Method hasNext.
+         *
+         * @return boolean
+         */
+        public boolean hasNext() {
+            if (next == null) {
+                next = computeNext();
+            }
+            return next != null;
+        }
+
+        /**
+         * Method next.
+         *
+         * @return String
+         */
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String val = next;
+            next = null;
+            return val;
+        }
+
+        /**
+         * Method remove.
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * The tokens of the list attribute.
+     */
+    private static class TokenValues extends Values {
+        /**
+         * Field tokenizer.
+         */
+        private final StringTokenizer tokenizer;
+
+        /**
+         * Field trim.
+         */
+        private final boolean trim;
+
+        /**
+         * Constructor for TokenValues.
+         *
+         * @param list      String
+         * @param delimiter String
+         * @param trim      boolean
+         */
+        TokenValues(String list, String delimiter, boolean trim) {
+            this.tokenizer = new StringTokenizer(list, delimiter);
+            this.trim = trim;
+        }
+
+        /**
+         * Method computeNext.
+         *
+         * @return String
+         */
+        protected String computeNext() {
+            if (!tokenizer.hasMoreTokens()) {
+                return null;
+            }
+            String tok = tokenizer.nextToken();
+            return trim ? StringTools.trim(tok) : tok;
+        }
+    }
+
+    /**
+     * The numbers from begin to end, both included.
+     */
+    private static class RangeValues extends Values {
+        /**
+         * Field current.
+         * A long, so that an end of Integer.MAX_VALUE cannot overflow.
+         */
+        private long current;
+
+        /**
+         * Field end.
+         */
+        private final int end;
+
+        /**
+         * Field step.
+         */
+        private final int step;
+
+        /**
+         * Constructor for RangeValues.
+         *
+         * @param begin int
+         * @param end   int
+         * @param step  int
+         */
+        RangeValues(int begin, int end, int step) {
+            this.current = begin;
+            this.end = end;
+            this.step = step;
+        }
+
+        /**
+         * Method computeNext.
+         *
+         * @return String
+         */
+        protected String computeNext() {
+            if (step > 0 ? current > end : current < end) {
+                return null;
+            }
+            String val = Long.toString(current);
+            current += step;
+            return val;
+        }
+    }
+
+    /**
+     * The string values of the objects of an iterator.
+     */
+    private static class ObjectValues extends Values {
+        /**
+         * Field iterator.
+         */
+        private final Iterator<?> iterator;
+
+        /**
+         * Constructor for ObjectValues.
+         *
+         * @param iterator Iterator&lt;?&gt;
+         */
+        ObjectValues(Iterator<?> iterator) {
+            this.iterator = iterator;
+        }
+
+        /**
+         * Method computeNext.
+         *
+         * @return String
+         */
+        protected String computeNext() {
+            return iterator.hasNext() ? iterator.next().toString() : null;
+        }
+    }
+
+    /**
+     * The values of several sources, one after another. Each source
+     * is only opened once the ones before it are exhausted.
+     */
+    private static class ConcatValues extends Values {
+        /**
+         * Field sources.
+         */
+        private final Iterator<Iterable<String>> sources;
+
+        /**
+         * Field current.
+         */
+        private Iterator<String> current;
+
+        /**
+         * Constructor for ConcatValues.
+         *
+         * @param sources Iterator&lt;Iterable&lt;String&gt;&gt;
+         */
+        ConcatValues(Iterator<Iterable<String>> sources) {
+            this.sources = sources;
+        }
+
+        /**
+         * Method computeNext.
+         *
+         * @return String
+         */
+        protected String computeNext() {
+            while (current == null || !current.hasNext()) {
+                if (!sources.hasNext()) {
+                    return null;
+                }
+                current = sources.next().iterator();
+            }
+            return current.next();
+        }
+    }
+
+    /**
+     * The values of another iterator, without repeats.
+     */
+    private static class DistinctValues extends Values {
+        /**
+         * Field values.
+         */
+        private final Iterator<String> values;
+
+        /**
+         * Field seen.
+         */
+        private final Set<String> seen = new HashSet<String>();
+
+        /**
+         * Constructor for DistinctValues.
+         *
+         * @param values Iterator&lt;String&gt;
+         */
+        DistinctValues(Iterator<String> values) {
+            this.values = values;
+        }
+
+        /**
+         * Method computeNext.
+         *
+         * @return String
+         */
+        protected String computeNext() {
+            while (values.hasNext()) {
+                String val = values.next();
+                if (seen.add(val)) {
+                    return val;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The first values of another iterator.
+     */
+    private static class LimitedValues extends Values {
+        /**
+         * Field values.
+         */
+        private final Iterator<String> values;
+
+        /**
+         * Field remaining.
+         */
+        private int remaining;
+
+        /**
+         * Constructor for LimitedValues.
+         *
+         * @param values Iterator&lt;String&gt;
+         * @param limit  int
+         */
+        LimitedValues(Iterator<String> values, int limit) {
+            this.values = values;
+            this.remaining = limit;
+        }
+
+        /**
+         * Method computeNext.
+         *
+         * @return String
+         */
+        protected String computeNext() {
+            if (remaining == 0 || !values.hasNext()) {
+                return null;
+            }
+            remaining--;
+            return values.next();
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.logic;
+
+import java.util.Hashtable;
+
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.PropertyHelper;
+
+/**
+ * A sub-project that can inherit the properties of its parent without
+ * copying them into its own property helper.
+ * <p>Once {@link #inheritProperties(Hashtable)} has been called, a
+ * property that has not been set in the sub-project is looked up in
+ * the properties the parent had then, and setting it in the
+ * sub-project is ignored if the parent had it, just as if it had been
+ * copied. Properties the parent sets later are not seen. Only the
+ * properties the sub-project sets itself are stored in it, and the
+ * properties of the parent can be taken once for many sub-projects,
+ * as for the target calls of a loop.</p>
+ */
+public class LayeredProject extends Project {
+    /**
+     * Field parent.
+     */
+    private final Project parent;
+
+    /**
+     * Field helper.
+     */
+    private final Helper helper;
+
+    /**
+     * Constructor for LayeredProject.
+     *
+     * @param parent the project to inherit the properties of
+     */
+    public LayeredProject(Project parent) {
+        super();
+        this.parent = parent;
+        helper = new Helper();
+        helper.setProject(this);
+        addReference(MagicNames.REFID_PROPERTY_HELPER, helper);
+    }
+
+    /**
+     * Make the properties the parent has now visible in this project.
+     * The basedir and ant.file properties are expected to be set in this
+     * project itself.
+     */
+    public void inheritProperties() {
+        inheritProperties(parent.getProperties());
+    }
+
+    /**
+     * Make properties taken from the parent visible in this project.
+     *
+     * @param properties the properties of the parent, as returned by
+     *                   its getProperties(); they are not copied, and
+     *                   must not be changed any more
+     */
+    public void inheritProperties(Hashtable<String, Object> properties) {
+        helper.inherit(properties);
+    }
+
+    /**
+     * The property helper of a layered project, which reads through to
+     * the properties of the parent for the properties not set locally.
+     */
+    private static class Helper extends PropertyHelper
+            implements PropertyHelper.PropertyEvaluator, PropertyHelper.PropertySetter {
+        /**
+         * Field inherited.
+         * The properties of the parent, null until they are inherited.
+         */
+        private volatile Hashtable<String, Object> inherited = null;
+
+        /**
+         * Constructor for Helper.
+         */
+        Helper() {
+            super();
+        }
+
+        /**
+         * Method inherit.
+         *
+         * @param properties Hashtable&lt;String,Object&gt;
+         */
+        synchronized void inherit(Hashtable<String, Object> properties) {
+            if (inherited == null) {
+                inherited = properties;
+                add(this);
+            }
+        }
+
+        /**
+         * Method evaluate.
+         *
+         * @param property       String
+         * @param propertyHelper PropertyHelper
+         * @return the value in the parent, or null if the property is set
+         *         locally or not at all
+         */
+        public Object evaluate(String property, PropertyHelper propertyHelper) {
+            if (isLocal(property)) {
+                return null;
+            }
+            return inherited.get(property);
+        }
+
+        /**
+         * Method setNew.
+         *
+         * @param property       String
+         * @param value          Object
+         * @param propertyHelper PropertyHelper
+         * @return true if the parent has the property, which then cannot
+         *         be set
+         */
+        public boolean setNew(String property, Object value,
+                              PropertyHelper propertyHelper) {
+            if (isLocal(property) || !inherited.containsKey(property)) {
+                return false;
+            }
+            getProject().log("Override ignored for property \"" + property
+                    + "\"", Project.MSG_VERBOSE);
+            return true;
+        }
+
+        /**
+         * Method set.
+         *
+         * @param property       String
+         * @param value          Object
+         * @param propertyHelper PropertyHelper
+         * @return false, the property is set locally
+         */
+        public boolean set(String property, Object value,
+                           PropertyHelper propertyHelper) {
+            return false;
+        }
+
+        /**
+         * Method getProperties.
+         *
+         * @return the properties of the parent, overridden by the local
+         *         ones
+         */
+        public Hashtable<String, Object> getProperties() {
+            Hashtable<String, Object> parentProperties = inherited;
+            if (parentProperties == null) {
+                return super.getProperties();
+            }
+            Hashtable<String, Object> all = new Hashtable<String, Object>(parentProperties);
+            all.putAll(super.getProperties());
+            return all;
+        }
+
+        /**
+         * Method isLocal.
+         *
+         * @param property String
+         * @return true if the property is set in this project
+         */
+        private boolean isLocal(String property) {
+            return getInternalProperties().containsKey(property);
+        }
+    }
+}
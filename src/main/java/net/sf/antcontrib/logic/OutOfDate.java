@@ -15,25 +15,50 @@
  */
 package net.sf.antcontrib.logic;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
+import org.apache.tools.ant.RuntimeConfigurable;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Parallel;
 import org.apache.tools.ant.taskdefs.Sequential;
 import org.apache.tools.ant.taskdefs.condition.Condition;
+import org.apache.tools.ant.types.AbstractFileSet;
 import org.apache.tools.ant.types.EnumeratedAttribute;
 import org.apache.tools.ant.types.Mapper;
 import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.FileResource;
 import org.apache.tools.ant.util.FileNameMapper;
 import org.apache.tools.ant.util.FileUtils;
 
+import net.sf.antcontrib.process.PooledParallel;
+import net.sf.antcontrib.util.DependencyManifest;
+import net.sf.antcontrib.util.DigestStore;
+import net.sf.antcontrib.util.FileTimestamps;
+import net.sf.antcontrib.util.FileWatcher;
+import net.sf.antcontrib.util.TreeDeleter;
+
 /**
  * Task to help in calling tasks if generated files are older
  * than source files.
@@ -83,6 +108,62 @@ public class OutOfDate extends Task implements Condition {
         }
     }
 
+    /**
+     * Enumerated type for comparison attribute.
+     *
+     * @see EnumeratedAttribute
+     */
+    public static class ComparisonEnum extends EnumeratedAttribute {
+        /**
+         * Field TIMESTAMP.
+         * (value is 0)
+         */
+        public static final int TIMESTAMP = 0;
+
+        /**
+         * Field CHECKSUM.
+         * (value is 1)
+         */
+        public static final int CHECKSUM = 1;
+
+        /**
+         * get the values.
+         *
+         * @return an array of the allowed values for this attribute.
+         */
+        public String[] getValues() {
+            return new String[]{"timestamp", "checksum"};
+        }
+    }
+
+    /**
+     * Enumerated type for recordon attribute.
+     *
+     * @see EnumeratedAttribute
+     */
+    public static class RecordOnEnum extends EnumeratedAttribute {
+        /**
+         * Field SUCCESS.
+         * (value is 0)
+         */
+        public static final int SUCCESS = 0;
+
+        /**
+         * Field EVAL.
+         * (value is 1)
+         */
+        public static final int EVAL = 1;
+
+        /**
+         * get the values.
+         *
+         * @return an array of the allowed values for this attribute.
+         */
+        public String[] getValues() {
+            return new String[]{"success", "eval"};
+        }
+    }
+
     // attributes and nested elements
     /**
      * Field doTask.
@@ -169,26 +250,111 @@ public class OutOfDate extends Task implements Condition {
      */
     private int collection = CollectionEnum.SOURCES;
 
+    /**
+     * Field threadCount.
+     */
+    private int threadCount = 1;
+
+    /**
+     * Field comparison.
+     */
+    private int comparison = ComparisonEnum.TIMESTAMP;
+
+    /**
+     * Field digestFile.
+     */
+    private File digestFile = null;
+
+    /**
+     * Field recordOn.
+     */
+    private int recordOn = RecordOnEnum.SUCCESS;
+
+    /**
+     * Field manifestFile.
+     */
+    private File manifestFile = null;
+
+    /**
+     * Field changeList.
+     */
+    private File changeList = null;
+
+    /**
+     * Field watch.
+     */
+    private boolean watch = false;
+
     // variables
+    /**
+     * Field WATCHES.
+     * The watch state of each outofdate task, by its place in the build
+     * file, kept for as long as the JVM runs; a state is closed once the
+     * task or its build file changes.
+     */
+    private static final Map<String, WatchState> WATCHES = new HashMap<String, WatchState>();
+
+    /**
+     * Field MISSING.
+     * The timestamp recorded for a file that does not exist.
+     */
+    private static final long MISSING = FileTimestamps.MISSING;
+
+    /**
+     * Field timestamps.
+     * The modification time of every file looked at by the current
+     * evaluation, so that each file is only checked once.
+     */
+    private final Map<File, Long> timestamps = new HashMap<File, Long>();
+
+    /**
+     * Field digests.
+     * The digest of the sources of each target, recorded once the task
+     * has run.
+     */
+    private final Map<String, String> digests = new LinkedHashMap<String, String>();
+
+    /**
+     * Field manifest.
+     */
+    private DependencyManifest manifest = null;
+
+    /**
+     * Field manifestEntries.
+     * The targets of each source, recorded once the task has run.
+     */
+    private final Map<String, DependencyManifest.Entry> manifestEntries =
+            new LinkedHashMap<String, DependencyManifest.Entry>();
+
+    /**
+     * Field store.
+     */
+    private DigestStore store = null;
+
+    /**
+     * Field digested.
+     */
+    private final Set<File> digested = new LinkedHashSet<File>();
+
     /**
      * Field targetSet.
      */
-    private final Map<File, File> targetSet = new HashMap<File, File>();
+    private final Map<File, File> targetSet = new LinkedHashMap<File, File>();
 
     /**
      * Field sourceSet.
      */
-    private final Map<File, File> sourceSet = new HashMap<File, File>();
+    private final Map<File, File> sourceSet = new LinkedHashMap<File, File>();
 
     /**
      * Field allTargetSet.
      */
-    private final Map<File, File> allTargetSet = new HashMap<File, File>();
+    private final Map<File, File> allTargetSet = new LinkedHashMap<File, File>();
 
     /**
      * Field allSourceSet.
      */
-    private final Map<File, File> allSourceSet = new HashMap<File, File>();
+    private final Map<File, File> allSourceSet = new LinkedHashMap<File, File>();
 
     /**
      * Set the collection attribute, controls what is
@@ -220,6 +386,98 @@ public class OutOfDate extends Task implements Condition {
         return mapper;
     }
 
+    /**
+     * The number of files to check at once. Checking several files at
+     * once pays off for large numbers of files, or files on a network
+     * file system.
+     *
+     * @param threadCount the number of threads, default 1
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new BuildException("Illegal value for threadCount " + threadCount
+                    + " it should be > 0");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * How to tell whether a target is out of date.
+     * <dl>
+     * <dt>"timestamp"</dt>
+     * <dd>the target is older than its sources (the default).</dd>
+     * <dt>"checksum"</dt>
+     * <dd>the contents of its sources changed since the target was
+     * last generated.</dd>
+     * </dl>
+     *
+     * @param comparison ComparisonEnum
+     */
+    public void setComparison(ComparisonEnum comparison) {
+        this.comparison = comparison.getIndex();
+    }
+
+    /**
+     * The file to keep the digests in for the checksum comparison.
+     * Tasks given the same file share the digests of their sources.
+     *
+     * @param digestFile File
+     */
+    public void setDigestFile(File digestFile) {
+        this.digestFile = digestFile;
+    }
+
+    /**
+     * When to record the digests of the sources for the checksum
+     * comparison:
+     * <dl>
+     * <dt>"success"</dt>
+     * <dd>once the nested sequential or parallel has run without
+     * failing; with none, the digests are not recorded.</dd>
+     * <dt>"eval"</dt>
+     * <dd>as soon as the targets have been compared, which is what is
+     * wanted once the targets have been generated by other means.</dd>
+     * </dl>
+     *
+     * @param recordOn RecordOnEnum
+     */
+    public void setRecordOn(RecordOnEnum recordOn) {
+        this.recordOn = recordOn.getIndex();
+    }
+
+    /**
+     * A file to record the targets each source is mapped to in, with
+     * their timestamps. On the next run the sources that have not
+     * changed are not mapped again.
+     *
+     * @param manifestFile File
+     */
+    public void setManifest(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * A file listing the sources that changed since the manifest was
+     * written, one per line. The other sources in the manifest, and
+     * their targets, are then not checked at all.
+     *
+     * @param changeList File
+     */
+    public void setChangeList(File changeList) {
+        this.changeList = changeList;
+    }
+
+    /**
+     * Whether to watch the directories of the files for changes, so
+     * that evaluating the task again in the same JVM only looks at the
+     * files that changed in the meantime.
+     *
+     * @param watch true to watch the files, default false
+     */
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
     /**
      * The property to set if any of the target files are outofdate with
      * regard to any of the source files.
@@ -375,6 +633,17 @@ public class OutOfDate extends Task implements Condition {
         this.doTask = doTask;
     }
 
+    /**
+     * Embedded do parallel, which can run its tasks on a thread pool.
+     * Ant takes this over {@link #addParallel(Parallel)} for the
+     * nested <code>&lt;parallel&gt;</code> element.
+     *
+     * @param doTask the parallel to embed
+     */
+    public void addConfiguredParallel(PooledParallel doTask) {
+        addParallel(doTask);
+    }
+
     /**
      * Embedded do sequential.
      *
@@ -397,7 +666,6 @@ public class OutOfDate extends Task implements Condition {
      */
     public boolean eval() {
         boolean ret = false;
-        FileUtils fileUtils = FileUtils.getFileUtils();
         if (sourcepaths == null) {
             throw new BuildException("You must specify a <sourcefiles> element.");
         }
@@ -405,61 +673,78 @@ public class OutOfDate extends Task implements Condition {
         if (targetpaths == null && mappers.size() == 0) {
             throw new BuildException("You must specify a <targetfiles> or <mapper> element.");
         }
+        timestamps.clear();
+
+        File[] sourceFiles = null;
+        File[] targetFiles = null;
+        WatchState state = null;
+        if (watch) {
+            String buildFile = getLocation().getFileName();
+            state = WatchState.get(buildFile, buildModified(),
+                    getProject().getProperty("basedir") + " " + buildFile
+                            + " " + getLocation().getLineNumber(),
+                    mappers.size() + " " + filesSignature());
+            log("Watching: " + state.refresh(), Project.MSG_VERBOSE);
+            sourceFiles = state.sourceFiles;
+            targetFiles = state.targetFiles;
+            timestamps.putAll(state.timestamps);
+        }
+        if (sourceFiles == null) {
+            sourceFiles = toFiles(sourcepaths.list());
+            targetFiles = targetpaths == null ? new File[0] : toFiles(targetpaths.list());
+            if (state != null) {
+                state.watch(sourcepaths);
+                state.watch(targetpaths);
+            }
+        }
+        Set<String> changes = readChangeList();
+        if (threadCount > 1 && changes == null) {
+            readTimestamps(sourceFiles, targetFiles, Collections.<File[]>emptyList());
+        }
+        List<File[]> mapped = mapTargets(sourceFiles, changes, state);
+        if (state != null) {
+            state.watch(mapped);
+        }
+        if (threadCount > 1) {
+            readTimestamps(new File[0], targetFiles, mapped);
+        }
 
         // Source Paths
-        String[] spaths = sourcepaths.list();
 
-        for (String spath : spaths) {
-            File sourceFile = new File(spath);
-            if (!sourceFile.exists()) {
+        for (File sourceFile : sourceFiles) {
+            if (timestamp(sourceFile) == MISSING) {
                 throw new BuildException(sourceFile.getAbsolutePath()
                         + " not found.");
             }
         }
 
-        // Target Paths
-
-        if (targetpaths != null) {
-            String[] paths = targetpaths.list();
-            if (paths.length == 0) {
+        if (comparison == ComparisonEnum.CHECKSUM) {
+            if (checksumsNeedGen(sourceFiles, targetFiles, mapped)) {
                 ret = true;
-            } else {
-                for (String path : paths) {
-                    if (targetNeedsGen(path, spaths)) {
-                        ret = true;
-                    }
-                }
             }
-        }
-
-        // Mapper Paths
-        for (MyMapper mapper : mappers) {
+        } else {
+            // Target Paths
 
-            File relativeDir = mapper.getDir();
-            File baseDir = new File(getProject().getProperty("basedir"));
-            if (relativeDir == null) {
-                relativeDir = baseDir;
-            }
-            String[] rpaths = new String[spaths.length];
-            for (int i = 0; i < spaths.length; ++i) {
-                rpaths[i] = fileUtils.removeLeadingPath(relativeDir, new File(spaths[i]));
+            if (targetFiles.length > 0 && targetsNeedGen(targetFiles, sourceFiles)) {
+                ret = true;
             }
 
-            FileNameMapper fileNameMapper = mapper.getImplementation();
-            for (int i = 0; i < spaths.length; ++i) {
-                String[] mapped = fileNameMapper.mapFileName(rpaths[i]);
-                if (mapped != null) {
-                    for (String mappedName : mapped) {
-                        if (outOfDate(new File(spaths[i]),
-                                fileUtils.resolveFile(
-                                        baseDir, mappedName))) {
-                            ret = true;
-                        }
-                    }
+            // Mapper Paths
+            for (File[] pair : mapped) {
+                if (outOfDate(pair[0], pair[1])) {
+                    ret = true;
                 }
             }
         }
 
+        if (targetpaths != null && targetFiles.length == 0) {
+            ret = true;
+        }
+
+        if (state != null) {
+            state.update(sourceFiles, targetFiles, timestamps);
+        }
+
         if (allTargets != null) {
             this.getProject().setNewProperty(
                     allTargets, setToString(allTargetSet));
@@ -504,29 +789,489 @@ public class OutOfDate extends Task implements Condition {
             }
         }
 
+        if (recordOn == RecordOnEnum.EVAL) {
+            recordDigests();
+        }
+
         return ret;
     }
 
     /**
-     * Method targetNeedsGen.
+     * Map the sources to their targets with the nested mappers.
+     * With a manifest, the targets of the sources that have not changed
+     * since it was written are taken from it instead.
+     * Mappers with the same dir share the relative paths of the
+     * sources, and a target mapped to more than once is the same
+     * File each time. When watching, only the sources not mapped since
+     * they last changed are mapped again.
      *
-     * @param target String
-     * @param spaths String[]
-     * @return boolean
+     * @param sourceFiles File[]
+     * @param changes     the sources that changed, null if not known
+     * @param state       the watch state, null when not watching
+     * @return the source and target of each mapping, in order
      */
-    private boolean targetNeedsGen(String target, String[] spaths) {
+    private List<File[]> mapTargets(File[] sourceFiles, Set<String> changes,
+                                    WatchState state) {
+        FileUtils fileUtils = FileUtils.getFileUtils();
+        File baseDir = new File(getProject().getProperty("basedir"));
+        Map<File, DependencyManifest.Entry> known =
+                new HashMap<File, DependencyManifest.Entry>();
+        manifestEntries.clear();
+        if (manifestFile != null) {
+            manifest = new DependencyManifest(manifestFile, taskSignature());
+            for (File sourceFile : sourceFiles) {
+                DependencyManifest.Entry entry = manifest.get(sourceFile);
+                manifestEntries.put(sourceFile.getAbsolutePath(),
+                        new DependencyManifest.Entry(MISSING));
+                if (entry == null) {
+                    continue;
+                }
+                if (changes == null) {
+                    if (timestamp(sourceFile) == entry.getModified()) {
+                        known.put(sourceFile, entry);
+                    }
+                } else if (!changes.contains(sourceFile.getAbsolutePath())) {
+                    // trust the manifest, without looking at the files
+                    known.put(sourceFile, entry);
+                    timestamps.put(sourceFile, entry.getModified());
+                    for (int i = 0; i < entry.size(); i++) {
+                        timestamps.put(new File(entry.getTarget(i)),
+                                entry.getTargetModified(i));
+                    }
+                }
+            }
+        }
+
+        Map<File, String[]> relativePaths = new HashMap<File, String[]>();
+        Map<String, File> resolved = new HashMap<String, File>();
+        Map<File, File> canonical = new HashMap<File, File>();
+        List<File[]> pairs = new ArrayList<File[]>();
+        int remapped = 0;
+        for (int m = 0; m < mappers.size(); m++) {
+            MyMapper mapper = mappers.get(m);
+            File relativeDir = mapper.getDir();
+            if (relativeDir == null) {
+                relativeDir = baseDir;
+            }
+            // the relative paths are worked out as they are needed
+            String[] rpaths = relativePaths.get(relativeDir);
+            if (rpaths == null) {
+                rpaths = new String[sourceFiles.length];
+                relativePaths.put(relativeDir, rpaths);
+            }
+            Map<File, List<File>> cached = state == null ? null : state.mapping(m);
+            FileNameMapper fileNameMapper = mapper.getImplementation();
+            for (int i = 0; i < sourceFiles.length; ++i) {
+                File sourceFile = sourceFiles[i];
+                List<File> targets = new ArrayList<File>();
+                DependencyManifest.Entry entry = known.get(sourceFile);
+                List<File> previous = cached == null ? null : cached.get(sourceFile);
+                if (entry != null) {
+                    for (int j = 0; j < entry.size(); j++) {
+                        if (entry.getMapper(j) == m) {
+                            targets.add(canonical(canonical, new File(entry.getTarget(j))));
+                        }
+                    }
+                } else if (previous != null) {
+                    for (File targetFile : previous) {
+                        targets.add(canonical(canonical, targetFile));
+                    }
+                } else {
+                    if (rpaths[i] == null) {
+                        rpaths[i] = fileUtils.removeLeadingPath(relativeDir, sourceFile);
+                    }
+                    String[] mapped = fileNameMapper.mapFileName(rpaths[i]);
+                    if (mapped != null) {
+                        for (String mappedName : mapped) {
+                            File targetFile = resolved.get(mappedName);
+                            if (targetFile == null) {
+                                targetFile = canonical(canonical,
+                                        fileUtils.resolveFile(baseDir, mappedName));
+                                resolved.put(mappedName, targetFile);
+                            }
+                            targets.add(targetFile);
+                        }
+                    }
+                    if (cached != null) {
+                        cached.put(sourceFile, targets);
+                        remapped++;
+                    }
+                }
+                for (File targetFile : targets) {
+                    pairs.add(new File[]{sourceFile, targetFile});
+                    if (manifest != null) {
+                        manifestEntries.get(sourceFile.getAbsolutePath()).addTarget(
+                                m, targetFile.getAbsolutePath(), MISSING);
+                    }
+                }
+            }
+        }
+        if (state != null) {
+            log("Watching: mapped " + remapped + " of " + sourceFiles.length
+                    + " sources again", Project.MSG_VERBOSE);
+        }
+        return pairs;
+    }
+
+    /**
+     * Method canonical.
+     *
+     * @param files the files seen so far
+     * @param file  File
+     * @return the first File seen equal to the given one
+     */
+    private static File canonical(Map<File, File> files, File file) {
+        File first = files.get(file);
+        if (first == null) {
+            files.put(file, file);
+            return file;
+        }
+        return first;
+    }
+
+    /**
+     * Method toFiles.
+     *
+     * @param paths String[]
+     * @return File[]
+     */
+    private static File[] toFiles(String[] paths) {
+        File[] files = new File[paths.length];
+        for (int i = 0; i < paths.length; ++i) {
+            files[i] = new File(paths[i]);
+        }
+        return files;
+    }
+
+    /**
+     * Method taskSignature.
+     * What is known about the files of the task from earlier runs is
+     * only good for the same sources and mappers, which come from the
+     * build file and the properties they use.
+     *
+     * @return a signature standing for the task in the build file
+     */
+    private String taskSignature() {
+        return getProject().getProperty("basedir") + " " + getLocation().getFileName()
+                + " " + buildModified() + " " + getLocation().getLineNumber()
+                + " " + mappers.size() + " " + filesSignature();
+    }
+
+    /**
+     * Method buildModified.
+     *
+     * @return the timestamp of the build file of the task
+     */
+    private long buildModified() {
+        String buildFile = getLocation().getFileName();
+        return buildFile == null
+                ? MISSING : FileTimestamps.lastModified(new File(buildFile));
+    }
+
+    /**
+     * Method filesSignature.
+     *
+     * @return a digest of the nested sourcefiles, targetfiles and
+     *         mappers as written in the build file, with the properties
+     *         they use replaced by their values; referenced filesets
+     *         are known by their directory, other referenced paths and
+     *         mappers only by their ids
+     */
+    private String filesSignature() {
+        List<String> parts = new ArrayList<String>();
+        Enumeration<RuntimeConfigurable> e = getRuntimeConfigurableWrapper().getChildren();
+        while (e.hasMoreElements()) {
+            RuntimeConfigurable child = e.nextElement();
+            String tag = child.getElementTag();
+            // the nested tasks do not say which files are involved
+            if (!"sequential".equalsIgnoreCase(tag) && !"parallel".equalsIgnoreCase(tag)) {
+                describe(child, parts);
+            }
+        }
+        return DigestStore.digest(parts);
+    }
+
+    /**
+     * Method describe.
+     *
+     * @param element RuntimeConfigurable
+     * @param parts   List&lt;String&gt; to add the tag, attributes and
+     *                nested elements of the element to
+     */
+    private void describe(RuntimeConfigurable element, List<String> parts) {
+        parts.add("<" + element.getElementTag());
+        Map<String, Object> attributes = new TreeMap<String, Object>(element.getAttributeMap());
+        for (Map.Entry<String, Object> a : attributes.entrySet()) {
+            Object v = a.getValue();
+            String value = v instanceof String
+                    ? getProject().replaceProperties((String) v) : String.valueOf(v);
+            parts.add(a.getKey() + "=" + value);
+            if ("refid".equalsIgnoreCase(a.getKey())) {
+                Object ref = getProject().getReference(value);
+                if (ref instanceof AbstractFileSet) {
+                    parts.add("dir=" + ((AbstractFileSet) ref).getDir(getProject()));
+                }
+            }
+        }
+        Enumeration<RuntimeConfigurable> e = element.getChildren();
+        while (e.hasMoreElements()) {
+            describe(e.nextElement(), parts);
+        }
+        parts.add(">");
+    }
+
+    /**
+     * Method readChangeList.
+     *
+     * @return the absolute paths of the changed sources, or null if
+     *         there is no change list
+     */
+    private Set<String> readChangeList() {
+        if (changeList == null) {
+            return null;
+        }
+        if (manifestFile == null) {
+            throw new BuildException("You must specify a manifest to use a changelist.");
+        }
+        if (!changeList.isFile()) {
+            log("No changelist " + changeList + ", checking every file", verbosity);
+            return null;
+        }
+        Set<String> changes = new HashSet<String>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(changeList)));
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    changes.add(getProject().resolveFile(line).getAbsolutePath());
+                }
+            }
+        } catch (IOException e) {
+            throw new BuildException("Cannot read " + changeList, e);
+        } finally {
+            FileUtils.close(in);
+        }
+        return changes;
+    }
+
+    /**
+     * Record the targets of the sources in the manifest, with the
+     * timestamps the targets have now that they have been generated.
+     */
+    private void recordManifest() {
+        if (manifest == null) {
+            return;
+        }
+        for (Map.Entry<String, DependencyManifest.Entry> e : manifestEntries.entrySet()) {
+            DependencyManifest.Entry entry = e.getValue();
+            entry.setModified(timestamp(new File(e.getKey())));
+            for (int i = 0; i < entry.size(); i++) {
+                File targetFile = new File(entry.getTarget(i));
+                entry.setTargetModified(i, targetSet.containsKey(targetFile)
+                        ? FileTimestamps.lastModified(targetFile) : timestamp(targetFile));
+            }
+        }
+        manifest.save(manifestEntries);
+    }
+
+    /**
+     * Read the timestamps of all the files involved at once, threadCount
+     * of them at a time.
+     *
+     * @param sourceFiles File[]
+     * @param targetFiles File[]
+     * @param mapped      List&lt;File[]&gt;
+     */
+    private void readTimestamps(File[] sourceFiles, File[] targetFiles,
+                                List<File[]> mapped) {
+        Set<File> files = new LinkedHashSet<File>();
+        Collections.addAll(files, sourceFiles);
+        Collections.addAll(files, targetFiles);
+        for (File[] pair : mapped) {
+            files.add(pair[0]);
+            files.add(pair[1]);
+        }
+        files.removeAll(timestamps.keySet());
+        List<File> list = new ArrayList<File>(files);
+        long[] times = FileTimestamps.lastModified(list, threadCount);
+        for (int i = 0; i < times.length; i++) {
+            timestamps.put(list.get(i), times[i]);
+        }
+    }
+
+    /**
+     * Compare the contents of the sources of each target with what they
+     * were when the target was last generated.
+     * A target is out of date if it is missing, or if the digest of its
+     * sources is not the one recorded for it. The sources marked as out
+     * of date with it are those that changed, or all of them if the
+     * target is missing or none of them changed.
+     *
+     * @param sourceFiles File[]
+     * @param targetFiles File[]
+     * @param mapped      List&lt;File[]&gt;
+     * @return true if any of the targets is out of date
+     */
+    private boolean checksumsNeedGen(File[] sourceFiles, File[] targetFiles,
+                                     List<File[]> mapped) {
+        if (digestFile == null) {
+            throw new BuildException("You must specify a digestfile to compare checksums.");
+        }
+        store = DigestStore.getInstance(digestFile);
+        digests.clear();
+        digested.clear();
+
+        // the sources of each target; the targetfiles share one list
+        List<File> sources = Arrays.asList(sourceFiles);
+        Map<File, List<File>> groups = new LinkedHashMap<File, List<File>>();
+        for (File targetFile : targetFiles) {
+            groups.put(targetFile, sources);
+        }
+        for (File[] pair : mapped) {
+            List<File> group = groups.get(pair[1]);
+            if (group == null || group == sources) {
+                group = group == null ? new ArrayList<File>() : new ArrayList<File>(sources);
+                groups.put(pair[1], group);
+            }
+            if (!group.contains(pair[0])) {
+                group.add(pair[0]);
+            }
+        }
+
+        // worked out once per list of sources
+        Map<List<File>, String> groupDigests = new IdentityHashMap<List<File>, String>();
+        Map<List<File>, List<File>> changedSources = new IdentityHashMap<List<File>, List<File>>();
+        Set<List<File>> marked =
+                Collections.newSetFromMap(new IdentityHashMap<List<File>, Boolean>());
+
         boolean ret = false;
-        File targetFile = new File(target);
-        for (String spath : spaths) {
-            if (outOfDate(new File(spath), targetFile)) {
-                ret = true;
+        for (Map.Entry<File, List<File>> e : groups.entrySet()) {
+            File targetFile = e.getKey();
+            List<File> group = e.getValue();
+            allTargetSet.put(targetFile, targetFile);
+            String digest = groupDigests.get(group);
+            if (digest == null) {
+                digest = groupDigest(group);
+                groupDigests.put(group, digest);
+            }
+            digests.put(targetFile.getAbsolutePath(), digest);
+            String recorded = store.getTargetDigest(targetFile);
+            boolean missing = timestamp(targetFile) == MISSING;
+            if (!missing && digest.equals(recorded)) {
+                continue;
+            }
+            ret = true;
+            List<File> changed = group;
+            if (!missing && recorded != null) {
+                changed = changedSources.get(group);
+                if (changed == null) {
+                    changed = new ArrayList<File>();
+                    for (File sourceFile : group) {
+                        if (!store.digest(sourceFile).equals(
+                                store.getRecordedDigest(sourceFile))) {
+                            changed.add(sourceFile);
+                        }
+                    }
+                    if (changed.isEmpty()) {
+                        changed = group;
+                    }
+                    changedSources.put(group, changed);
+                }
+            }
+            markOutOfDate(changed.isEmpty() ? null : changed.get(0), targetFile);
+            if (marked.add(changed)) {
+                for (File sourceFile : changed) {
+                    markOutOfDate(sourceFile, targetFile);
+                }
             }
         }
-        // Special case : there are no source files, make sure the
-        //                targets exist
-        if (spaths.length == 0) {
-            if (outOfDate(null, targetFile)) {
-                ret = true;
+        return ret;
+    }
+
+    /**
+     * Method groupDigest.
+     *
+     * @param sources List&lt;File&gt;
+     * @return the digest of the names and contents of the sources
+     */
+    private String groupDigest(List<File> sources) {
+        List<String> names = new ArrayList<String>();
+        for (File sourceFile : sources) {
+            allSourceSet.put(sourceFile, sourceFile);
+            digested.add(sourceFile);
+            names.add(sourceFile.getAbsolutePath());
+        }
+        Collections.sort(names);
+        List<String> parts = new ArrayList<String>();
+        for (String name : names) {
+            parts.add(name);
+            parts.add(store.digest(new File(name)));
+        }
+        return DigestStore.digest(parts);
+    }
+
+    /**
+     * Record the digests of the sources of the targets, which have now
+     * been generated.
+     */
+    private void recordDigests() {
+        if (comparison == ComparisonEnum.CHECKSUM && !digests.isEmpty()) {
+            store.record(digests, digested);
+        }
+    }
+
+    /**
+     * Compare every target against every source.
+     * A target is out of date if it is missing or older than the newest
+     * source, so the targets that are up to date are only looked at
+     * once. The sources out of date with regard to each target that is
+     * not are marked in the order of the sourcefiles, as they would be
+     * comparing each pair.
+     *
+     * @param targetFiles File[]
+     * @param sourceFiles File[]
+     * @return true if any of the targets is out of date
+     */
+    private boolean targetsNeedGen(File[] targetFiles, File[] sourceFiles) {
+        boolean ret = false;
+        long newestTime = MISSING;
+        for (File sourceFile : sourceFiles) {
+            allSourceSet.put(sourceFile, sourceFile);
+            newestTime = Math.max(newestTime, timestamp(sourceFile));
+        }
+        // once every source is marked, there is no need to go on looking
+        boolean[] marked = new boolean[sourceFiles.length];
+        int unmarked = sourceFiles.length;
+        for (File targetFile : targetFiles) {
+            allTargetSet.put(targetFile, targetFile);
+            long time = timestamp(targetFile);
+            // with no source files, only the missing targets are out of date
+            if (time != MISSING && (sourceFiles.length == 0 || newestTime <= time)) {
+                continue;
+            }
+            ret = true;
+            boolean targetMarked = false;
+            for (int i = 0; i < sourceFiles.length; i++) {
+                if (targetMarked && unmarked == 0) {
+                    break;
+                }
+                if (targetMarked && marked[i]) {
+                    continue;
+                }
+                if (time == MISSING || timestamp(sourceFiles[i]) > time) {
+                    markOutOfDate(sourceFiles[i], targetFile);
+                    targetMarked = true;
+                    if (!marked[i]) {
+                        marked[i] = true;
+                        unmarked--;
+                    }
+                }
+            }
+            if (!targetMarked) {
+                markOutOfDate(null, targetFile);
             }
         }
         return ret;
@@ -560,14 +1305,15 @@ public class OutOfDate extends Task implements Condition {
      * than (each of) the source file(s).
      */
     public void execute() {
-        if (!eval()) {
-            return;
-        }
-
-        if (doTask != null) {
+        boolean outOfDate = eval();
+        if (outOfDate && doTask != null) {
             doTask.perform();
         }
-
+        // with nothing run, the targets are not known to be generated
+        if (recordOn == RecordOnEnum.SUCCESS && (!outOfDate || doTask != null)) {
+            recordDigests();
+        }
+        recordManifest();
     }
 
     /**
@@ -583,26 +1329,53 @@ public class OutOfDate extends Task implements Condition {
             allSourceSet.put(sourceFile, sourceFile);
         }
         allTargetSet.put(targetFile, targetFile);
-        if (!targetFile.exists()) {
+        long targetTime = timestamp(targetFile);
+        if (targetTime == MISSING) {
             ret = true;
         }
         if ((!ret) && (sourceFile != null)) {
-            ret = sourceFile.lastModified() > targetFile.lastModified();
+            ret = timestamp(sourceFile) > targetTime;
         }
         if (ret) {
-            if ((sourceFile != null && sourceSet.get(sourceFile) == null)
-                    || targetSet.get(targetFile) == null) {
-                log("SourceFile " + sourceFile + " outofdate "
-                        + "with regard to " + targetFile, verbosity);
-            }
-            if (sourceFile != null) {
-                sourceSet.put(sourceFile, sourceFile);
-            }
-            targetSet.put(targetFile, targetFile);
+            markOutOfDate(sourceFile, targetFile);
         }
         return ret;
     }
 
+    /**
+     * Method markOutOfDate.
+     *
+     * @param sourceFile File
+     * @param targetFile File
+     */
+    private void markOutOfDate(File sourceFile, File targetFile) {
+        if ((sourceFile != null && sourceSet.get(sourceFile) == null)
+                || targetSet.get(targetFile) == null) {
+            log("SourceFile " + sourceFile + " outofdate "
+                    + "with regard to " + targetFile, verbosity);
+        }
+        if (sourceFile != null) {
+            sourceSet.put(sourceFile, sourceFile);
+        }
+        targetSet.put(targetFile, targetFile);
+    }
+
+    /**
+     * Method timestamp.
+     *
+     * @param file File
+     * @return the modification time of the file, or MISSING if it
+     *         does not exist
+     */
+    private long timestamp(File file) {
+        Long time = timestamps.get(file);
+        if (time == null) {
+            time = FileTimestamps.lastModified(file);
+            timestamps.put(file, time);
+        }
+        return time;
+    }
+
     /**
      * Method setToString.
      *
@@ -669,6 +1442,11 @@ public class OutOfDate extends Task implements Condition {
          */
         private int myLogging = Project.MSG_INFO;
 
+        /**
+         * Field threadCount.
+         */
+        private int threadCount = 1;
+
         /**
          * whether to delete all the targets
          * or just those that are newer than the
@@ -699,6 +1477,20 @@ public class OutOfDate extends Task implements Condition {
             this.failOnError = failOnError;
         }
 
+        /**
+         * setThreadCount() method.
+         *
+         * @param threadCount the number of files and directories to
+         *                    delete at once, default 1
+         */
+        public void setThreadCount(int threadCount) {
+            if (threadCount < 1) {
+                throw new BuildException("Illegal value for threadCount " + threadCount
+                        + " it should be > 0");
+            }
+            this.threadCount = threadCount;
+        }
+
         /**
          * Method execute.
          */
@@ -720,6 +1512,10 @@ public class OutOfDate extends Task implements Condition {
             }
 
             String[] names = toBeDeleted.list();
+            if (threadCount > 1) {
+                deleteInParallel(names);
+                return;
+            }
             for (String name : names) {
                 File file = new File(name);
                 if (!file.exists()) {
@@ -742,6 +1538,34 @@ public class OutOfDate extends Task implements Condition {
             }
         }
 
+        /**
+         * Delete the files and directories threadCount at a time, then
+         * report how much was deleted and what could not be.
+         *
+         * @param names String[]
+         */
+        private void deleteInParallel(String[] names) {
+            TreeDeleter deleter = new TreeDeleter(OutOfDate.this, myLogging);
+            deleter.delete(Arrays.asList(toFiles(names)), threadCount);
+            log("Deleted " + deleter.getFiles() + " files (" + deleter.getBytes()
+                    + " bytes) and " + deleter.getDirectories() + " directories",
+                    myLogging);
+            List<String> failures = deleter.getFailures();
+            if (failures.isEmpty()) {
+                return;
+            }
+            StringBuilder message = new StringBuilder("Unable to delete "
+                    + failures.size() + " files");
+            for (String failure : failures) {
+                message.append(System.getProperty("line.separator"));
+                message.append("  ").append(failure);
+            }
+            if (failOnError) {
+                throw new BuildException(message.toString());
+            }
+            log(message.toString(), myLogging);
+        }
+
         /**
          * Field DELETE_RETRY_SLEEP_MILLIS.
          * (value is 10)
@@ -808,6 +1632,222 @@ public class OutOfDate extends Task implements Condition {
         }
     }
 
+    /**
+     * What an outofdate task watching its files knows from its last
+     * evaluation: the files it found, and the timestamps of those that
+     * are in watched directories and did not change since.
+     */
+    private static class WatchState {
+        /**
+         * Field watcher.
+         */
+        private final FileWatcher watcher = new FileWatcher();
+
+        /**
+         * Field sourceFiles.
+         * The source files, or null if they have to be listed again.
+         */
+        private File[] sourceFiles = null;
+
+        /**
+         * Field targetFiles.
+         */
+        private File[] targetFiles = null;
+
+        /**
+         * Field timestamps.
+         */
+        private final Map<File, Long> timestamps = new HashMap<File, Long>();
+
+        /**
+         * Field mappings.
+         * The targets of the sources, for each mapper.
+         */
+        private final List<Map<File, List<File>>> mappings =
+                new ArrayList<Map<File, List<File>>>();
+
+        /**
+         * Field buildFile.
+         */
+        private final String buildFile;
+
+        /**
+         * Field buildModified.
+         */
+        private final long buildModified;
+
+        /**
+         * Field inputs.
+         * The signature of the files of the task this state is good for.
+         */
+        private final String inputs;
+
+        /**
+         * Constructor for WatchState.
+         *
+         * @param buildFile     String
+         * @param buildModified long
+         * @param inputs        String
+         */
+        private WatchState(String buildFile, long buildModified, String inputs) {
+            this.buildFile = buildFile;
+            this.buildModified = buildModified;
+            this.inputs = inputs;
+        }
+
+        /**
+         * Get the state of a task, closing the states left from an
+         * earlier version of the task or of its build file.
+         *
+         * @param buildFile     the build file of the task, may be null
+         * @param buildModified the timestamp of the build file
+         * @param location      where the task is in the build file
+         * @param inputs        the signature of the files of the task
+         * @return the state of the task
+         */
+        static WatchState get(String buildFile, long buildModified,
+                              String location, String inputs) {
+            synchronized (WATCHES) {
+                WatchState state = WATCHES.get(location);
+                if (state != null && state.buildModified == buildModified
+                        && state.inputs.equals(inputs)) {
+                    return state;
+                }
+                for (Iterator<WatchState> i = WATCHES.values().iterator(); i.hasNext();) {
+                    WatchState old = i.next();
+                    if (old == state || buildFile != null && buildFile.equals(old.buildFile)
+                            && old.buildModified != buildModified) {
+                        old.watcher.close();
+                        i.remove();
+                    }
+                }
+                state = new WatchState(buildFile, buildModified, inputs);
+                WATCHES.put(location, state);
+                return state;
+            }
+        }
+
+        /**
+         * Forget what changed since the last evaluation.
+         *
+         * @return what is left to check, for the log
+         */
+        synchronized String refresh() {
+            FileWatcher.Changes changes = watcher.poll();
+            if (sourceFiles == null || changes.isUnknown()) {
+                sourceFiles = null;
+                targetFiles = null;
+                timestamps.clear();
+                mappings.clear();
+                return "checking every file";
+            }
+            timestamps.keySet().removeAll(changes.getModified());
+            if (changes.isListingChanged()) {
+                sourceFiles = null;
+                targetFiles = null;
+                mappings.clear();
+            } else {
+                for (Map<File, List<File>> mapping : mappings) {
+                    mapping.keySet().removeAll(changes.getModified());
+                }
+            }
+            return changes.getModified().size()
+                    + " files changed since the last evaluation";
+        }
+
+        /**
+         * Method mapping.
+         *
+         * @param mapper the index of the mapper
+         * @return the targets the sources were mapped to by the mapper
+         *         since they last changed
+         */
+        synchronized Map<File, List<File>> mapping(int mapper) {
+            while (mappings.size() <= mapper) {
+                mappings.add(Collections.synchronizedMap(new HashMap<File, List<File>>()));
+            }
+            return mappings.get(mapper);
+        }
+
+        /**
+         * Watch the directories of the files on a path, and every
+         * directory under the roots of its filesets.
+         *
+         * @param path Path, may be null
+         */
+        void watch(Path path) {
+            if (path == null) {
+                return;
+            }
+            Set<File> roots = new HashSet<File>();
+            for (Resource r : path) {
+                if (r instanceof FileResource) {
+                    FileResource fr = (FileResource) r;
+                    if (fr.getBaseDir() != null && roots.add(fr.getBaseDir())) {
+                        watchTree(fr.getBaseDir());
+                    }
+                    watcher.watch(fr.getFile().getParentFile());
+                }
+            }
+        }
+
+        /**
+         * Watch the directories of mapped targets.
+         *
+         * @param mapped List&lt;File[]&gt;
+         */
+        void watch(List<File[]> mapped) {
+            for (File[] pair : mapped) {
+                File dir = pair[1].getParentFile();
+                if (dir != null) {
+                    watcher.watch(dir);
+                }
+            }
+        }
+
+        /**
+         * Method watchTree.
+         *
+         * @param dir File
+         */
+        private void watchTree(File dir) {
+            if (!watcher.watch(dir)) {
+                return;
+            }
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (child.isDirectory()
+                        && !Files.isSymbolicLink(child.toPath())) {
+                    watchTree(child);
+                }
+            }
+        }
+
+        /**
+         * Remember the outcome of an evaluation.
+         *
+         * @param sourceFiles the source files
+         * @param targetFiles the target files
+         * @param timestamps  the timestamps read, of which those in
+         *                    watched directories are kept
+         */
+        synchronized void update(File[] sourceFiles, File[] targetFiles,
+                                 Map<File, Long> timestamps) {
+            this.sourceFiles = sourceFiles;
+            this.targetFiles = targetFiles;
+            this.timestamps.clear();
+            for (Map.Entry<File, Long> e : timestamps.entrySet()) {
+                File dir = e.getKey().getParentFile();
+                if (dir != null && watcher.isWatched(dir)) {
+                    this.timestamps.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
     /**
      * Wrapper for mapper - includes dir.
      */
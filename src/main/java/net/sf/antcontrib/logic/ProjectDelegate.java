@@ -31,6 +31,17 @@ public class ProjectDelegate extends Project {
      */
     private Project subproject;
 
+    /**
+     * Field layered.
+     */
+    private boolean layered = false;
+
+    /**
+     * Field inherited.
+     * The properties handed to the layered sub-projects, null for none.
+     */
+    private Hashtable<String, Object> inherited = null;
+
     /**
      * Constructor for ProjectDelegate.
      *
@@ -41,6 +52,51 @@ public class ProjectDelegate extends Project {
         this.delegate = delegate;
     }
 
+    /**
+     * Create sub-projects that read the properties of the delegate
+     * through instead of copying them. The task creating the delegate
+     * hands them the properties with {@link #inheritProperties(Hashtable)}
+     * or {@link LayeredProject#inheritProperties(Hashtable)}; the
+     * properties of the delegate then read as empty, so that the task
+     * setting the sub-project up does not copy them as well.
+     *
+     * @param layered boolean
+     */
+    public void setLayered(boolean layered) {
+        this.layered = layered;
+    }
+
+    /**
+     * Method createSubProject.
+     *
+     * @return Project
+     */
+    public Project createSubProject() {
+        if (!layered) {
+            return super.createSubProject();
+        }
+        LayeredProject p = new LayeredProject(delegate);
+        initSubProject(p);
+        if (inherited != null) {
+            p.inheritProperties(inherited);
+        }
+        return p;
+    }
+
+    /**
+     * Hand properties to the layered sub-project created last, and to
+     * those created from now on.
+     *
+     * @param properties the properties of the delegate, as returned by
+     *                   its getProperties(), null for none
+     */
+    public void inheritProperties(Hashtable<String, Object> properties) {
+        this.inherited = properties;
+        if (properties != null && subproject instanceof LayeredProject) {
+            ((LayeredProject) subproject).inheritProperties(properties);
+        }
+    }
+
     /**
      * Method getSubproject.
      *
@@ -423,6 +479,10 @@ public class ProjectDelegate extends Project {
      * @return Hashtable&lt;String,Object&gt;
      */
     public Hashtable<String, Object> getProperties() {
+        if (layered) {
+            // the properties are inherited, no need to copy them
+            return new Hashtable<String, Object>();
+        }
         return delegate.getProperties();
     }
 
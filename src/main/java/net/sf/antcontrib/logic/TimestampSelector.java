@@ -15,16 +15,30 @@
  */
 package net.sf.antcontrib.logic;
 
-import static java.lang.Math.min;
-
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileProvider;
+
+import net.sf.antcontrib.util.FileTimestamps;
 
 /**
  * Task definition for the foreach task.  The foreach task iterates
@@ -45,10 +59,12 @@ import org.apache.tools.ant.types.Reference;
  *                 [count="num"]
  *                 [age="eldest|youngest"]
  *                 [pathSep=","]
- *                 [pathref="ref"] &gt;
+ *                 [pathref="ref"]
+ *                 [dir="dir"] &gt;
  *       &lt;path&gt;
  *          ...
  *       &lt;/path&gt;
+ *       &lt;fileset ... /&gt;
  *     &lt;/latesttimestamp&gt;
  *   </code>
  *
@@ -62,8 +78,22 @@ import org.apache.tools.ant.types.Reference;
  *         pathSep      --&gt; What to use as the path separator when using the "property"
  *                          attribute, in conjunction with the "count" attribute
  *         pathref      --&gt; The reference of the path which is the input set of files.
+ *         dir          --&gt; A directory whose files, at any depth, are input files.
+ *
+ *   Nested resource collections other than path, such as filesets, are
+ *   input files as well.
  *
  * </pre>
+ * <p>The modification time of each file is read once, and the files
+ * are picked with a heap holding no more than "count" of them, so that
+ * going through n files takes n file system calls and O(n log count)
+ * comparisons. Files with the same modification time are picked in
+ * reverse order of the path.</p>
+ * <p>Unlike a path, nested resource collections and the directory are
+ * never turned into a list of names: their files are looked at one by
+ * one, and the directory is walked with the modification times read
+ * along with its entries, so that memory use depends on "count" rather
+ * than on the number of files.</p>
  *
  * @author <a href="mailto:mattinger@yahoo.com">Matthew Inger</a>
  */
@@ -110,6 +140,16 @@ public class TimestampSelector extends Task {
      */
     private String age = AGE_YOUNGEST;
 
+    /**
+     * Field resources.
+     */
+    private final List<ResourceCollection> resources = new ArrayList<ResourceCollection>();
+
+    /**
+     * Field dir.
+     */
+    private File dir;
+
     /**
      * Constructor.
      */
@@ -162,15 +202,8 @@ public class TimestampSelector extends Task {
      */
     protected int compare(File a, File b) {
         return age.equalsIgnoreCase(AGE_ELDEST)
-                ? compare(a.lastModified(), b.lastModified())
-                : compare(b.lastModified(), a.lastModified());
-    }
-
-    /*
-     * TODO Remove when Java 7 is the baseline.
-     */
-    private int compare(long x, long y) {
-        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+                ? Long.compare(a.lastModified(), b.lastModified())
+                : Long.compare(b.lastModified(), a.lastModified());
     }
 
     /**
@@ -235,31 +268,37 @@ public class TimestampSelector extends Task {
         if (property == null && outputSetId == null) {
             throw new BuildException("Property or OutputSetId must be specified.");
         }
-        if (path == null) {
-            throw new BuildException("A path element or pathref attribute must be specified.");
+        if (path == null && resources.isEmpty() && dir == null) {
+            throw new BuildException("A path element, resource collection, pathref or dir attribute must be specified.");
         }
 
-        // Figure out the list of existing file elements
-        // from the designated path
-        List<File> v = new ArrayList<File>();
-        for (String value : path.list()) {
-            File f = new File(value);
-            if (f.exists()) {
-                v.add(f);
+        // Pick the first N existing files from the designated inputs
+        Selection selection = new Selection();
+        if (path != null) {
+            for (String value : path.list()) {
+                File f = new File(value);
+                selection.offer(f, FileTimestamps.lastModified(f));
             }
         }
-
-        // Sort the vector, need to make java 1.1 compliant
-        sort(v);
-
-        // Pull off the first N items
-        List<File> v2 = v.subList(0, min(count, v.size()));
+        for (ResourceCollection rc : resources) {
+            for (Resource r : rc) {
+                FileProvider fp = r.as(FileProvider.class);
+                if (fp == null) {
+                    throw new BuildException("Only file system resources are supported, not "
+                            + r.toLongString());
+                }
+                selection.offer(fp.getFile(), FileTimestamps.lastModified(fp.getFile()));
+            }
+        }
+        if (dir != null) {
+            walk(dir, selection);
+        }
+        List<File> v = selection.getFiles();
 
         // Build the resulting Path object
         Path path = new Path(getProject());
-        for (File f : v2) {
-            Path p = new Path(getProject(), f.getAbsolutePath());
-            path.addExisting(p);
+        for (File f : v) {
+            path.createPathElement().setLocation(f);
         }
 
         if (outputSetId != null) {
@@ -283,6 +322,38 @@ public class TimestampSelector extends Task {
         }
     }
 
+    /**
+     * Offer every file under a directory.
+     *
+     * @param root      File
+     * @param selection Selection
+     */
+    private void walk(File root, final Selection selection) {
+        if (!root.isDirectory()) {
+            throw new BuildException(root + " is not a directory.");
+        }
+        try {
+            Files.walkFileTree(root.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    Integer.MAX_VALUE, new SimpleFileVisitor<java.nio.file.Path>() {
+                public FileVisitResult visitFile(java.nio.file.Path file,
+                                                 BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        selection.offer(file.toFile(), attrs.lastModifiedTime().toMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFileFailed(java.nio.file.Path file,
+                                                       IOException exc) {
+                    log("Skipping " + file + ": " + exc, Project.MSG_VERBOSE);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new BuildException("Cannot scan " + root, e, getLocation());
+        }
+    }
+
     /**
      * Method setProperty.
      *
@@ -325,6 +396,24 @@ public class TimestampSelector extends Task {
         this.pathSep = pathSep;
     }
 
+    /**
+     * Method setDir.
+     *
+     * @param dir File
+     */
+    public void setDir(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Add a resource collection.
+     *
+     * @param rc ResourceCollection
+     */
+    public void add(ResourceCollection rc) {
+        resources.add(rc);
+    }
+
     /**
      * Method setOutputSetId.
      *
@@ -364,4 +453,108 @@ public class TimestampSelector extends Task {
         path = new Path(getProject());
         return path;
     }
+
+    /**
+     * The first count files seen so far, with the one to drop next at
+     * the head of a heap.
+     */
+    private final class Selection {
+        /**
+         * Field eldest.
+         */
+        private final boolean eldest = age.equalsIgnoreCase(AGE_ELDEST);
+
+        /**
+         * Field order.
+         * Orders the files from the first to drop to the first to keep.
+         */
+        private final Comparator<Candidate> order = new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b) {
+                if (a.modified != b.modified) {
+                    return (a.modified < b.modified) == eldest ? 1 : -1;
+                }
+                return Integer.compare(a.index, b.index);
+            }
+        };
+
+        /**
+         * Field heap.
+         */
+        private final PriorityQueue<Candidate> heap =
+                new PriorityQueue<Candidate>(Math.max(1, Math.min(count, 1024)) + 1, order);
+
+        /**
+         * Field index.
+         */
+        private int index = 0;
+
+        /**
+         * Offer a file for selection.
+         *
+         * @param file     File
+         * @param modified the modification time of the file, or
+         *                 FileTimestamps.MISSING if it does not exist
+         */
+        void offer(File file, long modified) {
+            int i = index++;
+            if (modified == FileTimestamps.MISSING || count < 1) {
+                return;
+            }
+            Candidate c = new Candidate(file, modified, i);
+            if (heap.size() < count) {
+                heap.add(c);
+            } else if (order.compare(c, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(c);
+            }
+        }
+
+        /**
+         * Method getFiles.
+         *
+         * @return the files selected, the first to keep first
+         */
+        List<File> getFiles() {
+            List<File> v = new ArrayList<File>(heap.size());
+            while (!heap.isEmpty()) {
+                v.add(heap.poll().file);
+            }
+            Collections.reverse(v);
+            return v;
+        }
+    }
+
+    /**
+     * A file with the modification time it was selected by.
+     */
+    private static final class Candidate {
+        /**
+         * Field file.
+         */
+        private final File file;
+
+        /**
+         * Field modified.
+         */
+        private final long modified;
+
+        /**
+         * Field index.
+         * The position of the file in the path.
+         */
+        private final int index;
+
+        /**
+         * Constructor for Candidate.
+         *
+         * @param file     File
+         * @param modified long
+         * @param index    int
+         */
+        Candidate(File file, long modified, int index) {
+            this.file = file;
+            this.modified = modified;
+            this.index = index;
+        }
+    }
 }
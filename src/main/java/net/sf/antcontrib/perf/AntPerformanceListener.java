@@ -15,21 +15,29 @@
  */
 package net.sf.antcontrib.perf;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 import org.apache.tools.ant.BuildEvent;
 import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.Project;
-import org.apache.tools.ant.Target;
-import org.apache.tools.ant.Task;
+import org.apache.tools.ant.util.FileUtils;
 
 /**
  * This BuildListener keeps track of the total time it takes for each target
@@ -44,6 +52,26 @@ import org.apache.tools.ant.Task;
  * (<code>-Dperformance.log=/tmp/performance.log</code>)
  * or in the build file itself (<code>&lt;property name="performance.log"
  * location="/tmp/performance.log"/&gt;</code>).</p>
+ * <p>Setting "<code>performance.profile</code>" to true adds a profile of
+ * the build, where times are aggregated by call path, such as project,
+ * target, macro, task. Each line gives the number of runs, the total
+ * time, the time not spent in nested targets and tasks, and the minimum,
+ * maximum and mean time of a run, so that the time spent in a task run
+ * many times over in a loop or a macro is not lost.</p>
+ * <p>Times are measured with <code>System.nanoTime()</code> and shown to
+ * the microsecond. Nothing but the call tree is updated while the build
+ * runs, and timing a task does not create any object once the same call
+ * path has been seen, so the listener adds little to builds running
+ * many small tasks.</p>
+ * <p>The times can also be written for other tools to read, by setting
+ * properties to the names of files: "<code>performance.json</code>" and
+ * "<code>performance.csv</code>" for the times by call path as JSON or
+ * CSV, "<code>performance.trace</code>" for every target and task run
+ * as a span on its thread, in the trace event format read by
+ * chrome://tracing and Perfetto. As spans are recorded while the build
+ * runs, <code>performance.trace</code> has to be set on the command line
+ * or outside of any target. Subclasses can add formats by overriding
+ * {@link #createWriters()}.</p>
  * <p>Developed for use with Antelope, migrated to ant-contrib Oct 2003.</p>
  *
  * @author <a href="mailto:danson@germane-software.com">Dale Anson</a>
@@ -51,19 +79,24 @@ import org.apache.tools.ant.Task;
  */
 public class AntPerformanceListener implements BuildListener {
     /**
-     * Field targetStats.
+     * Field callTree.
      */
-    private Map<Target, StopWatch> targetStats = new ConcurrentHashMap<Target, StopWatch>();
+    private CallTree callTree = new CallTree();
 
     /**
-     * Field taskStats.
+     * Field writers.
      */
-    private Map<Task, StopWatch> taskStats = new ConcurrentHashMap<Task, StopWatch>();
+    private final Map<String, ProfileWriter> writers = createWriters();
 
     /**
-     * Field master.
+     * Field trace.
      */
-    private StopWatch master = null;
+    private TraceRecorder trace = null;
+
+    /**
+     * Field traceChecked.
+     */
+    private boolean traceChecked = false;
 
     /**
      * Field swStartTime.
@@ -71,14 +104,32 @@ public class AntPerformanceListener implements BuildListener {
     private long swStartTime = 0;
 
     /**
-     * Starts a 'running total' stopwatch.
+     * Field startNanos.
+     */
+    private long startNanos = 0;
+
+    /**
+     * Notes when the build starts.
      *
      * @param be BuildEvent
      * @see org.apache.tools.ant.BuildListener#buildStarted(BuildEvent)
      */
     public void buildStarted(BuildEvent be) {
-        master = new StopWatch();
-        swStartTime = master.start();
+        startNanos = System.nanoTime();
+        swStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the formats the times can be written in.
+     *
+     * @return the writer of each format, by the name of the property
+     *         holding the file to write to
+     */
+    protected Map<String, ProfileWriter> createWriters() {
+        Map<String, ProfileWriter> map = new LinkedHashMap<String, ProfileWriter>();
+        map.put("performance.json", new JsonProfileWriter());
+        map.put("performance.csv", new CsvProfileWriter());
+        return map;
     }
 
     /**
@@ -88,18 +139,15 @@ public class AntPerformanceListener implements BuildListener {
      * @see org.apache.tools.ant.BuildListener#buildFinished(BuildEvent)
      */
     public void buildFinished(BuildEvent be) {
-        long swStopTime = master.stop();
-
-        // sort targets, key is StopWatch, value is Target
-        TreeMap<StopWatch, Target> sortedTargets = new TreeMap<StopWatch, Target>(new StopWatchComparator());
-        for (Map.Entry<Target, StopWatch> entry : targetStats.entrySet()) {
-            sortedTargets.put(entry.getValue(), entry.getKey());
-        }
-
-        // sort tasks, key is StopWatch, value is Task
-        TreeMap<StopWatch, Task> sortedTasks = new TreeMap<StopWatch, Task>(new StopWatchComparator());
-        for (Map.Entry<Task, StopWatch> entry : taskStats.entrySet()) {
-            sortedTasks.put(entry.getValue(), entry.getKey());
+        long stopNanos = System.nanoTime();
+        long swStopTime = System.currentTimeMillis();
+        callTree.finished(be.getProject(), stopNanos);
+
+        // total the targets and tasks by name
+        Map<String, Long> targetTotals = new LinkedHashMap<String, Long>();
+        Map<String, Long> taskTotals = new LinkedHashMap<String, Long>();
+        for (CallTree.Node node : callTree.getRoot().getChildren()) {
+            totals(node, "", "<implicit>", targetTotals, taskTotals, new HashSet<String>());
         }
 
         // print the sorted results
@@ -107,42 +155,23 @@ public class AntPerformanceListener implements BuildListener {
         String lSep = System.getProperty("line.separator");
         msg.append(lSep).append("Statistics:").append(lSep);
         msg.append("-------------- Target Results ---------------------").append(lSep);
-        for (Map.Entry<StopWatch, Target> entry : sortedTargets.entrySet()) {
-            StringBuilder sb = new StringBuilder();
-            Target target = entry.getValue();
-            if (target != null) {
-                Project p = target.getProject();
-                if (p != null && p.getName() != null) {
-                    sb.append(p.getName()).append(".");
-                }
-                String total = format(entry.getKey().total());
-                String targetName = target.getName();
-                if (targetName == null || targetName.length() == 0) {
-                    targetName = "<implicit>";
-                }
-                sb.append(targetName).append(": ").append(total);
-            }
-            msg.append(sb.toString()).append(lSep);
+        for (Map.Entry<String, Long> entry : sort(targetTotals)) {
+            msg.append(entry.getKey()).append(": ").append(format(entry.getValue())).append(lSep);
         }
         msg.append(lSep);
         msg.append("-------------- Task Results -----------------------").append(lSep);
-        for (Map.Entry<StopWatch, Task> entry : sortedTasks.entrySet()) {
-            Task task = entry.getValue();
-            StringBuilder sb = new StringBuilder();
-            Target target = task.getOwningTarget();
-            if (target != null) {
-                Project p = target.getProject();
-                if (p != null && p.getName() != null) {
-                    sb.append(p.getName()).append(".");
-                }
-                String targetName = target.getName();
-                if (targetName == null || targetName.length() == 0) {
-                    targetName = "<implicit>";
-                }
-                sb.append(targetName).append(".");
+        for (Map.Entry<String, Long> entry : sort(taskTotals)) {
+            msg.append(entry.getKey()).append(": ").append(format(entry.getValue())).append(lSep);
+        }
+
+        Project p = be.getProject();
+        if (p != null && Project.toBoolean(p.getProperty("performance.profile"))) {
+            msg.append(lSep);
+            msg.append("-------------- Profile ----------------------------").append(lSep);
+            msg.append("calls, total, self, min, max, mean: path").append(lSep);
+            for (CallTree.Node node : callTree.getRoot().getChildren()) {
+                profile(msg, node, "", lSep);
             }
-            sb.append(task.getTaskName()).append(": ").append(format(entry.getKey().total()));
-            msg.append(sb.toString()).append(lSep);
         }
 
         msg.append(lSep);
@@ -150,11 +179,10 @@ public class AntPerformanceListener implements BuildListener {
         SimpleDateFormat format = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss.SSS");
         msg.append("Start time: ").append(format.format(new Date(swStartTime))).append(lSep);
         msg.append("Stop time: ").append(format.format(new Date(swStopTime))).append(lSep);
-        msg.append("Total time: ").append(format(master.total())).append(lSep);
+        msg.append("Total time: ").append(format(stopNanos - startNanos)).append(lSep);
         System.out.println(msg.toString());
 
         // write stats to file?
-        Project p = be.getProject();
         File outfile = null;
         if (p != null) {
             String f = p.getProperty("performance.log");
@@ -174,21 +202,153 @@ public class AntPerformanceListener implements BuildListener {
             }
         }
 
+        // write the other formats
+        if (p != null) {
+            for (Map.Entry<String, ProfileWriter> entry : writers.entrySet()) {
+                String f = p.getProperty(entry.getKey());
+                if (f != null) {
+                    write(new File(f), entry.getValue(), stopNanos - startNanos);
+                }
+            }
+            String f = p.getProperty("performance.trace");
+            if (f != null && trace != null) {
+                write(new File(f), null, 0);
+            }
+        }
+
         // reset the stats registers
+        callTree = new CallTree();
+        trace = null;
+        traceChecked = false;
+    }
 
-        targetStats = new ConcurrentHashMap<Target, StopWatch>();
-        taskStats = new ConcurrentHashMap<Task, StopWatch>();
+    /**
+     * Writes the times in a format, or the trace.
+     *
+     * @param outfile File
+     * @param writer  the format, null for the trace
+     * @param total   how long the build took
+     */
+    private void write(File outfile, ProfileWriter writer, long total) {
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(outfile), "UTF-8"));
+            if (writer == null) {
+                trace.write(out);
+            } else {
+                writer.write(callTree, total, out);
+            }
+            out.close();
+            out = null;
+            System.out.println("Wrote stats to: " + outfile.getAbsolutePath());
+        } catch (IOException e) {
+            System.out.println("Cannot write stats to: " + outfile.getAbsolutePath()
+                    + ": " + e.getMessage());
+        } finally {
+            FileUtils.close(out);
+        }
     }
 
     /**
-     * Formats the milliseconds from a StopWatch into decimal seconds.
+     * Adds the time of the targets and tasks under a node to their
+     * totals, by "project.target" and "project.target.task". A task
+     * nested in a task of the same name is already counted in that one.
      *
-     * @param ms long
+     * @param node    CallTree.Node
+     * @param project the name of the project, with a trailing dot
+     * @param target  the name of the target
+     * @param targets the totals of the targets
+     * @param tasks   the totals of the tasks
+     * @param open    the tasks the node is nested in
+     */
+    private void totals(CallTree.Node node, String project, String target,
+                        Map<String, Long> targets, Map<String, Long> tasks, Set<String> open) {
+        String key = null;
+        switch (node.getKind()) {
+            case PROJECT:
+                project = "<project>".equals(node.getName()) ? "" : node.getName() + ".";
+                target = "<implicit>";
+                open = new HashSet<String>();
+                break;
+            case TARGET:
+                target = node.getName();
+                add(targets, project + target, node.getTotal());
+                break;
+            default:
+                key = project + target + "." + node.getName();
+                if (open.add(key)) {
+                    add(tasks, key, node.getTotal());
+                } else {
+                    key = null;
+                }
+                break;
+        }
+        for (CallTree.Node child : node.getChildren()) {
+            totals(child, project, target, targets, tasks, open);
+        }
+        if (key != null) {
+            open.remove(key);
+        }
+    }
+
+    /**
+     * Method add.
+     *
+     * @param totals Map&lt;String, Long&gt;
+     * @param key    String
+     * @param time   long
+     */
+    private void add(Map<String, Long> totals, String key, long time) {
+        Long total = totals.get(key);
+        totals.put(key, total == null ? time : total + time);
+    }
+
+    /**
+     * Sorts totals from the fastest to the slowest.
+     *
+     * @param totals Map&lt;String, Long&gt;
+     * @return List&lt;Map.Entry&lt;String, Long&gt;&gt;
+     */
+    private List<Map.Entry<String, Long>> sort(Map<String, Long> totals) {
+        List<Map.Entry<String, Long>> list = new ArrayList<Map.Entry<String, Long>>(totals.entrySet());
+        Collections.sort(list, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Appends the profile of a node and the nodes under it.
+     *
+     * @param msg    StringBuilder
+     * @param node   CallTree.Node
+     * @param indent String
+     * @param lSep   String
+     */
+    private void profile(StringBuilder msg, CallTree.Node node, String indent, String lSep) {
+        msg.append(node.getCount()).append(", ").append(format(node.getTotal()));
+        msg.append(", ").append(format(node.getSelf()));
+        msg.append(", ").append(format(node.getMin()));
+        msg.append(", ").append(format(node.getMax()));
+        msg.append(", ").append(format(node.getMean()));
+        msg.append(": ").append(indent).append(node.getName()).append(lSep);
+        for (CallTree.Node child : node.getChildren()) {
+            profile(msg, child, indent + "  ", lSep);
+        }
+    }
+
+    /**
+     * Formats nanoseconds into decimal seconds, to the microsecond.
+     *
+     * @param ns long
      * @return String
      */
-    private String format(long ms) {
-        return (ms < 1000) ? String.format("0.%03d sec", ms)
-                : String.format("%d.%03d sec", ms / 1000, ms % 1000);
+    private String format(long ns) {
+        long us = ns / 1000;
+        return String.format("%d.%06d sec", us / 1000000, us % 1000000);
     }
 
     /**
@@ -198,9 +358,17 @@ public class AntPerformanceListener implements BuildListener {
      * @see org.apache.tools.ant.BuildListener#targetStarted(BuildEvent)
      */
     public void targetStarted(BuildEvent be) {
-        StopWatch sw = new StopWatch();
-        sw.start();
-        targetStats.put(be.getTarget(), sw);
+        if (!traceChecked) {
+            // the first target runs once the command line and the
+            // top level of the build file are done with
+            traceChecked = true;
+            Project p = be.getProject();
+            if (p != null && p.getProperty("performance.trace") != null) {
+                trace = new TraceRecorder(startNanos != 0 ? startNanos : System.nanoTime());
+                callTree.setRecorder(trace);
+            }
+        }
+        callTree.targetStarted(be.getTarget(), System.nanoTime());
     }
 
     /**
@@ -210,8 +378,7 @@ public class AntPerformanceListener implements BuildListener {
      * @see org.apache.tools.ant.BuildListener#targetFinished(BuildEvent)
      */
     public void targetFinished(BuildEvent be) {
-        StopWatch sw = targetStats.get(be.getTarget());
-        sw.stop();
+        callTree.finished(be.getTarget(), System.nanoTime());
     }
 
     /**
@@ -221,9 +388,7 @@ public class AntPerformanceListener implements BuildListener {
      * @see org.apache.tools.ant.BuildListener#taskStarted(BuildEvent)
      */
     public void taskStarted(BuildEvent be) {
-        StopWatch sw = new StopWatch();
-        sw.start();
-        taskStats.put(be.getTask(), sw);
+        callTree.taskStarted(be.getTask(), System.nanoTime());
     }
 
     /**
@@ -233,10 +398,7 @@ public class AntPerformanceListener implements BuildListener {
      * @see org.apache.tools.ant.BuildListener#taskFinished(BuildEvent)
      */
     public void taskFinished(BuildEvent be) {
-        StopWatch sw = taskStats.get(be.getTask());
-        if (sw != null) {
-            sw.stop();
-        }
+        callTree.finished(be.getTask(), System.nanoTime());
     }
 
     /**
@@ -268,6 +430,8 @@ public class AntPerformanceListener implements BuildListener {
 
     /**
      * A stopwatch, useful for 'quick and dirty' performance testing.
+     * Times are measured with System.nanoTime(), so that they do not
+     * change when the clock is set.
      *
      * <a href="mailto:danson@germane-software.com">Dale Anson</a>
      * @version $Revision: 1.5 $
@@ -277,17 +441,12 @@ public class AntPerformanceListener implements BuildListener {
         /**
          * storage for start time.
          */
-        private long startTime = 0;
-
-        /**
-         * storage for stop time.
-         */
-        private long stopTime = 0;
+        private long startNanos = 0;
 
         /**
          * cumulative elapsed time.
          */
-        private long totalTime = 0;
+        private long totalNanos = 0;
 
         /**
          * Starts the stopwatch.
@@ -302,8 +461,8 @@ public class AntPerformanceListener implements BuildListener {
          * @return the start time, the long returned System.currentTimeMillis().
          */
         public long start() {
-            startTime = System.currentTimeMillis();
-            return startTime;
+            startNanos = System.nanoTime();
+            return System.currentTimeMillis();
         }
 
         /**
@@ -312,29 +471,26 @@ public class AntPerformanceListener implements BuildListener {
          * @return the stop time, the long returned System.currentTimeMillis().
          */
         public long stop() {
-            stopTime = System.currentTimeMillis();
-            totalTime += stopTime - startTime;
-            startTime = 0;
-            this.stopTime = 0;
-            return stopTime;
+            totalNanos += System.nanoTime() - startNanos;
+            return System.currentTimeMillis();
         }
 
         /**
          * Total cumulative elapsed time.
          *
-         * @return the total time
+         * @return the total time in milliseconds
          */
         public long total() {
-            return totalTime;
+            return totalNanos / 1000000;
         }
 
         /**
          * Elapsed time, difference between the last start time and now.
          *
-         * @return the elapsed time
+         * @return the elapsed time in milliseconds
          */
         public long elapsed() {
-            return System.currentTimeMillis() - startTime;
+            return (System.nanoTime() - startNanos) / 1000000;
         }
     }
 
@@ -349,13 +505,11 @@ public class AntPerformanceListener implements BuildListener {
         AntPerformanceListener apl = new AntPerformanceListener();
 
         System.out.println(apl.format(1));
-        System.out.println(apl.format(10));
-        System.out.println(apl.format(100));
         System.out.println(apl.format(1000));
-        System.out.println(apl.format(100000));
         System.out.println(apl.format(1000000));
-        System.out.println(apl.format(10000000));
         System.out.println(apl.format(100000000));
         System.out.println(apl.format(1000000000));
+        System.out.println(apl.format(100000000000L));
+        System.out.println(apl.format(10000000000000L));
     }
 }
@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+
+/**
+ * The time spent in projects, targets and tasks, aggregated by call path.
+ * <p>Every target or task run under the same path, such as
+ * project &#8594; target &#8594; macro &#8594; task, adds to the same node,
+ * however many times it runs and whichever Task instance runs it. A
+ * project appears in the path whenever a target of another project is
+ * run, as by <code>&lt;antcall&gt;</code> or
+ * <code>&lt;antcallback&gt;</code>.</p>
+ * <p>Each thread keeps its own stack of what it is running. A task
+ * started on a thread that is not running anything yet, as by
+ * <code>&lt;parallel&gt;</code>, is put under what the thread running
+ * its target is running, which is the task waiting for it to end. That
+ * thread pushes and pops its frames holding the lock of its stack, so
+ * that the frame read from another thread is not one being reused.</p>
+ */
+public class CallTree {
+    /**
+     * The kinds of node.
+     */
+    public enum Kind {
+        /**
+         * A project.
+         */
+        PROJECT,
+        /**
+         * A target.
+         */
+        TARGET,
+        /**
+         * A task.
+         */
+        TASK
+    }
+
+    /**
+     * Gets told of each run as it ends.
+     */
+    public interface Recorder {
+        /**
+         * Record a run, on the thread that ran it.
+         *
+         * @param node  what was run
+         * @param start when it started, from System.nanoTime()
+         * @param end   when it ended, from System.nanoTime()
+         */
+        void span(Node node, long start, long end);
+    }
+
+    /**
+     * Field root.
+     */
+    private final Node root = new Node(null, "");
+
+    /**
+     * Field stacks.
+     */
+    private final ThreadLocal<Stack> stacks = new ThreadLocal<Stack>() {
+        protected Stack initialValue() {
+            return new Stack();
+        }
+    };
+
+    /**
+     * Field targets.
+     * The stack of the thread running each target, for the tasks it
+     * runs on other threads, to be read holding the lock of the stack.
+     */
+    private final Map<Target, Stack> targets =
+            Collections.synchronizedMap(new IdentityHashMap<Target, Stack>());
+
+    /**
+     * Field recorder.
+     */
+    private volatile Recorder recorder;
+
+    /**
+     * Method setRecorder.
+     *
+     * @param recorder gets told of each run from now on, null for none
+     */
+    public void setRecorder(Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Method getRoot.
+     *
+     * @return the node holding the projects run first
+     */
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Start timing a target.
+     *
+     * @param target Target
+     * @param time   the time it starts, from System.nanoTime()
+     */
+    public void targetStarted(Target target, long time) {
+        Stack stack = stacks.get();
+        Node parent = parent(stack, target.getProject(), null, time);
+        String name = target.getName();
+        if (name == null || name.length() == 0) {
+            name = "<implicit>";
+        }
+        stack.push(target, target.getProject(), parent.child(Kind.TARGET, name), time);
+        targets.put(target, stack);
+    }
+
+    /**
+     * Start timing a task.
+     *
+     * @param task Task
+     * @param time the time it starts, from System.nanoTime()
+     */
+    public void taskStarted(Task task, long time) {
+        Stack stack = stacks.get();
+        Node parent = parent(stack, task.getProject(), task.getOwningTarget(), time);
+        stack.push(task, task.getProject(),
+                parent.child(Kind.TASK, task.getTaskName()), time);
+    }
+
+    /**
+     * Stop timing a target, task or project, and whatever it left
+     * running on this thread.
+     *
+     * @param key  the Target, Task or Project
+     * @param time the time it stops, from System.nanoTime()
+     */
+    public void finished(Object key, long time) {
+        Stack stack = stacks.get();
+        int i = stack.size - 1;
+        while (i >= 0 && stack.frames[i].key != key) {
+            i--;
+        }
+        if (i < 0) {
+            return;
+        }
+        Recorder r = recorder;
+        synchronized (stack) {
+            while (stack.size > i) {
+                Frame frame = stack.frames[--stack.size];
+                frame.node.record(time - frame.start);
+                if (r != null) {
+                    r.span(frame.node, frame.start, time);
+                }
+                if (frame.key instanceof Target) {
+                    targets.remove(frame.key);
+                }
+                // let go of the task, the frame is kept for the next one
+                frame.set(null, null, null, 0);
+            }
+        }
+    }
+
+    /**
+     * Find what a target or task is run by, starting the timing of its
+     * project if that is not what is running.
+     *
+     * @param stack   the frames running on this thread
+     * @param project the project of the target or task
+     * @param owner   the target of the task, null for a target
+     * @param time    the time it starts
+     * @return the node to put the target or task under, run in the
+     *         given project
+     */
+    private Node parent(Stack stack, Project project, Target owner, long time) {
+        Node node = root;
+        Frame parent = stack.peek();
+        if (parent != null) {
+            if (parent.project == project) {
+                return parent.node;
+            }
+            node = parent.node;
+        } else if (owner != null) {
+            Stack running = targets.get(owner);
+            if (running != null) {
+                synchronized (running) {
+                    parent = running.peek();
+                    // the target may have ended, and its frames be reused
+                    if (parent != null && targets.get(owner) == running) {
+                        if (parent.project == project) {
+                            return parent.node;
+                        }
+                        node = parent.node;
+                    }
+                }
+            }
+        }
+        String name = project == null ? null : project.getName();
+        if (name == null || name.length() == 0) {
+            name = "<project>";
+        }
+        return stack.push(project, project, node.child(Kind.PROJECT, name), time).node;
+    }
+
+    /**
+     * The frames running on a thread. Frames are kept once popped, so
+     * that timing a task does not create any object once the stack has
+     * been as deep. Only the thread of the stack changes it, holding
+     * its lock.
+     */
+    private static final class Stack {
+        /**
+         * Field frames.
+         */
+        private Frame[] frames = new Frame[16];
+
+        /**
+         * Field size.
+         */
+        private int size = 0;
+
+        /**
+         * Method peek.
+         *
+         * @return the frame on top, or null if there is none
+         */
+        Frame peek() {
+            return size == 0 ? null : frames[size - 1];
+        }
+
+        /**
+         * Method push.
+         *
+         * @param key     Object
+         * @param project Project
+         * @param node    Node
+         * @param start   long
+         * @return the frame pushed
+         */
+        synchronized Frame push(Object key, Project project, Node node, long start) {
+            if (size == frames.length) {
+                frames = Arrays.copyOf(frames, size * 2);
+            }
+            Frame frame = frames[size];
+            if (frame == null) {
+                frame = new Frame();
+                frames[size] = frame;
+            }
+            size++;
+            return frame.set(key, project, node, start);
+        }
+    }
+
+    /**
+     * Something running on a thread.
+     */
+    private static final class Frame {
+        /**
+         * Field key.
+         * The Target, Task or Project.
+         */
+        private Object key;
+
+        /**
+         * Field project.
+         */
+        private Project project;
+
+        /**
+         * Field node.
+         */
+        private Node node;
+
+        /**
+         * Field start.
+         */
+        private long start;
+
+        /**
+         * Method set.
+         *
+         * @param key     Object
+         * @param project Project
+         * @param node    Node
+         * @param start   long
+         * @return this frame
+         */
+        Frame set(Object key, Project project, Node node, long start) {
+            this.key = key;
+            this.project = project;
+            this.node = node;
+            this.start = start;
+            return this;
+        }
+    }
+
+    /**
+     * The times of everything run under one call path.
+     */
+    public static class Node {
+        /**
+         * Field kind.
+         */
+        private final Kind kind;
+
+        /**
+         * Field name.
+         */
+        private final String name;
+
+        /**
+         * Field children.
+         */
+        private final Map<String, Node> children = new LinkedHashMap<String, Node>();
+
+        /**
+         * Field last.
+         * The child found last, which is most often the one looked for.
+         */
+        private volatile Node last;
+
+        /**
+         * Field count.
+         */
+        private long count = 0;
+
+        /**
+         * Field total.
+         */
+        private long total = 0;
+
+        /**
+         * Field min.
+         */
+        private long min = Long.MAX_VALUE;
+
+        /**
+         * Field max.
+         */
+        private long max = 0;
+
+        /**
+         * Constructor for Node.
+         *
+         * @param kind Kind
+         * @param name String
+         */
+        Node(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        /**
+         * Get a child node, adding it if needed.
+         *
+         * @param childKind Kind
+         * @param childName String
+         * @return Node
+         */
+        Node child(Kind childKind, String childName) {
+            Node child = last;
+            if (child != null && child.kind == childKind && child.name.equals(childName)) {
+                return child;
+            }
+            synchronized (this) {
+                String key = childKind.ordinal() + childName;
+                child = children.get(key);
+                if (child == null) {
+                    child = new Node(childKind, childName);
+                    children.put(key, child);
+                }
+            }
+            last = child;
+            return child;
+        }
+
+        /**
+         * Add one run.
+         *
+         * @param time how long it took, in nanoseconds
+         */
+        synchronized void record(long time) {
+            count++;
+            total += time;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+        }
+
+        /**
+         * Method getKind.
+         *
+         * @return whether this is a project, target or task, null for
+         *         the root
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Method getName.
+         *
+         * @return the name of the project, target or task
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Method getChildren.
+         *
+         * @return the nodes run from this one, slowest first
+         */
+        public synchronized List<Node> getChildren() {
+            List<Node> list = new ArrayList<Node>(children.values());
+            Collections.sort(list, new Comparator<Node>() {
+                public int compare(Node a, Node b) {
+                    long x = a.getTotal();
+                    long y = b.getTotal();
+                    return x > y ? -1 : (x == y ? 0 : 1);
+                }
+            });
+            return list;
+        }
+
+        /**
+         * Method getCount.
+         *
+         * @return the number of runs
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Method getTotal.
+         *
+         * @return the time in nanoseconds of all the runs
+         */
+        public synchronized long getTotal() {
+            return total;
+        }
+
+        /**
+         * Method getSelf.
+         *
+         * @return the time in nanoseconds of all the runs not spent in
+         *         the children; children run on other threads at the same
+         *         time can make up for more than the total, in which case
+         *         it is 0
+         */
+        public long getSelf() {
+            long self = getTotal();
+            for (Node child : getChildren()) {
+                self -= child.getTotal();
+            }
+            return Math.max(0, self);
+        }
+
+        /**
+         * Method getMin.
+         *
+         * @return the time in nanoseconds of the fastest run
+         */
+        public synchronized long getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        /**
+         * Method getMax.
+         *
+         * @return the time in nanoseconds of the slowest run
+         */
+        public synchronized long getMax() {
+            return max;
+        }
+
+        /**
+         * Method getMean.
+         *
+         * @return the average time in nanoseconds of a run
+         */
+        public synchronized long getMean() {
+            return count == 0 ? 0 : total / count;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Writes the call tree of a build as CSV, one line per call path, with
+ * the times in microseconds. The path is made of the names of the
+ * projects, targets and tasks separated with "/".
+ */
+public class CsvProfileWriter implements ProfileWriter {
+    /**
+     * Field HEADER.
+     */
+    private static final String HEADER = "path,kind,depth,calls,total_us,self_us,min_us,max_us,mean_us";
+
+    /**
+     * Write the times of a build.
+     *
+     * @param tree  CallTree
+     * @param total long
+     * @param out   Writer
+     * @throws IOException if the times cannot be written
+     */
+    public void write(CallTree tree, long total, Writer out) throws IOException {
+        out.write(HEADER + "\n");
+        for (CallTree.Node node : tree.getRoot().getChildren()) {
+            write(node, "", 0, out);
+        }
+    }
+
+    /**
+     * Method write.
+     *
+     * @param node   CallTree.Node
+     * @param parent the path of the parent node
+     * @param depth  int
+     * @param out    Writer
+     * @throws IOException if the times cannot be written
+     */
+    private void write(CallTree.Node node, String parent, int depth, Writer out)
+            throws IOException {
+        String path = parent + "/" + node.getName();
+        out.write(quote(path));
+        out.write("," + node.getKind().name().toLowerCase(Locale.ENGLISH));
+        out.write("," + depth);
+        out.write("," + node.getCount());
+        out.write("," + node.getTotal() / 1000);
+        out.write("," + node.getSelf() / 1000);
+        out.write("," + node.getMin() / 1000);
+        out.write("," + node.getMax() / 1000);
+        out.write("," + node.getMean() / 1000);
+        out.write("\n");
+        for (CallTree.Node child : node.getChildren()) {
+            write(child, path, depth + 1, out);
+        }
+    }
+
+    /**
+     * Quote a field if needed.
+     *
+     * @param s String
+     * @return the field, in double quotes if it holds a comma, a double
+     *         quote or a line break
+     */
+    private static String quote(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0
+                && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the call tree of a build as JSON. Each node has its kind, name,
+ * number of calls, and total, self, minimum, maximum and mean time in
+ * microseconds, followed by the nodes under it:
+ * <pre>
+ * {"total_us":1234,"nodes":[
+ *  {"kind":"project","name":"p","calls":1,"total_us":1200,...,"children":[...]}]}
+ * </pre>
+ */
+public class JsonProfileWriter implements ProfileWriter {
+    /**
+     * Write the times of a build.
+     *
+     * @param tree  CallTree
+     * @param total long
+     * @param out   Writer
+     * @throws IOException if the times cannot be written
+     */
+    public void write(CallTree tree, long total, Writer out) throws IOException {
+        out.write("{\"total_us\":" + total / 1000 + ",\"nodes\":");
+        write(tree.getRoot().getChildren(), out, "\n ");
+        out.write("}\n");
+    }
+
+    /**
+     * Method write.
+     *
+     * @param nodes  List&lt;CallTree.Node&gt;
+     * @param out    Writer
+     * @param indent String
+     * @throws IOException if the times cannot be written
+     */
+    private void write(List<CallTree.Node> nodes, Writer out, String indent)
+            throws IOException {
+        out.write("[");
+        String sep = "";
+        for (CallTree.Node node : nodes) {
+            out.write(sep);
+            out.write(indent);
+            out.write("{\"kind\":" + quote(node.getKind().name().toLowerCase(Locale.ENGLISH)));
+            out.write(",\"name\":" + quote(node.getName()));
+            out.write(",\"calls\":" + node.getCount());
+            out.write(",\"total_us\":" + node.getTotal() / 1000);
+            out.write(",\"self_us\":" + node.getSelf() / 1000);
+            out.write(",\"min_us\":" + node.getMin() / 1000);
+            out.write(",\"max_us\":" + node.getMax() / 1000);
+            out.write(",\"mean_us\":" + node.getMean() / 1000);
+            List<CallTree.Node> children = node.getChildren();
+            if (!children.isEmpty()) {
+                out.write(",\"children\":");
+                write(children, out, indent + " ");
+            }
+            out.write("}");
+            sep = ",";
+        }
+        out.write("]");
+    }
+
+    /**
+     * Quote a string for JSON.
+     *
+     * @param s String
+     * @return the string in double quotes, with the characters JSON
+     *         does not allow escaped
+     */
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
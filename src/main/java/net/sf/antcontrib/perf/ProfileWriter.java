@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the times of a build in some format, for other tools to read.
+ *
+ * @see AntPerformanceListener#createWriters()
+ */
+public interface ProfileWriter {
+    /**
+     * Write the times of a build.
+     *
+     * @param tree  the times of the build, by call path
+     * @param total how long the build took, in nanoseconds
+     * @param out   where to write
+     * @throws IOException if the times cannot be written
+     */
+    void write(CallTree tree, long total, Writer out) throws IOException;
+}
@@ -28,6 +28,8 @@ package net.sf.antcontrib.perf;
  * System.out.println(sw.format(sw.elapsed()); // print the time since the last start
  * System.out.println(sw.toString()); // print the cumulative total
  * </pre>
+ * <p>Times are measured with <code>System.nanoTime()</code>, so that they
+ * do not change when the clock is set, and are given in milliseconds.</p>
  * <p>Developed for use with Antelope, migrated to ant-contrib Oct 2003.</p>
  *
  * @author <a href="mailto:danson@germane-software.com">Dale Anson</a>
@@ -45,14 +47,14 @@ public class StopWatch {
     private long startTime = 0;
 
     /**
-     * storage for stop time.
+     * storage for start time, from System.nanoTime().
      */
-    private long stopTime = 0;
+    private long startNanos = 0;
 
     /**
-     * cumulative elapsed time.
+     * cumulative elapsed time in nanoseconds.
      */
-    private long totalTime = 0;
+    private long totalNanos = 0;
 
     /**
      * is the stopwatch running.
@@ -85,6 +87,7 @@ public class StopWatch {
     public long start() {
         if (!running) {
             startTime = System.currentTimeMillis();
+            startNanos = System.nanoTime();
         }
         running = true;
         return startTime;
@@ -96,11 +99,13 @@ public class StopWatch {
      * @return the stop time, the long returned System.currentTimeMillis().
      */
     public long stop() {
-        stopTime = System.currentTimeMillis();
+        long stopNanos = System.nanoTime();
+        long stopTime = System.currentTimeMillis();
         if (running) {
-            totalTime += stopTime - startTime;
+            totalNanos += stopNanos - startNanos;
         }
         startTime = stopTime;
+        startNanos = stopNanos;
         running = false;
         return stopTime;
     }
@@ -112,8 +117,8 @@ public class StopWatch {
      */
     public long total() {
         stop();
-        long rtn = totalTime;
-        totalTime = 0;
+        long rtn = totalNanos / 1000000;
+        totalNanos = 0;
         return rtn;
     }
 
@@ -123,7 +128,7 @@ public class StopWatch {
      * @return the elapsed time
      */
     public long elapsed() {
-        return System.currentTimeMillis() - startTime;
+        return (System.nanoTime() - startNanos) / 1000000;
     }
 
     /**
@@ -160,7 +165,7 @@ public class StopWatch {
         if (name != null) {
             sb.append(name).append(": ");
         }
-        sb.append(format(totalTime));
+        sb.append(format(totalNanos / 1000000));
         sb.append("]");
         return sb.toString();
     }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records every project, target and task run as a span on the thread
+ * that ran it, and writes them in the trace event format read by
+ * chrome://tracing and Perfetto, so that targets and tasks run in
+ * parallel show up side by side on a timeline.
+ * <p>Each thread records its spans in its own arrays, so that recording
+ * never waits for another thread and creates no object but when the
+ * arrays grow.</p>
+ */
+public class TraceRecorder implements CallTree.Recorder {
+    /**
+     * Field origin.
+     * The time the timestamps are counted from.
+     */
+    private final long origin;
+
+    /**
+     * Field buffers.
+     */
+    private final List<Buffer> buffers = new ArrayList<Buffer>();
+
+    /**
+     * Field local.
+     */
+    private final ThreadLocal<Buffer> local = new ThreadLocal<Buffer>() {
+        protected Buffer initialValue() {
+            Buffer buffer = new Buffer(Thread.currentThread());
+            synchronized (buffers) {
+                buffers.add(buffer);
+            }
+            return buffer;
+        }
+    };
+
+    /**
+     * Constructor for TraceRecorder.
+     *
+     * @param origin the time the build started, from System.nanoTime()
+     */
+    public TraceRecorder(long origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * Record a span on the current thread.
+     *
+     * @param node  what was run
+     * @param start when it started, from System.nanoTime()
+     * @param end   when it ended, from System.nanoTime()
+     */
+    public void span(CallTree.Node node, long start, long end) {
+        local.get().add(node, start, end);
+    }
+
+    /**
+     * Write the spans recorded, as a JSON object with a "traceEvents"
+     * array of complete ("X") events, in microseconds.
+     *
+     * @param out Writer
+     * @throws IOException if the trace cannot be written
+     */
+    public void write(Writer out) throws IOException {
+        List<Buffer> list;
+        synchronized (buffers) {
+            list = new ArrayList<Buffer>(buffers);
+        }
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        String sep = "\n";
+        for (Buffer buffer : list) {
+            out.write(sep);
+            out.write("{\"ph\":\"M\",\"pid\":1,\"tid\":" + buffer.tid
+                    + ",\"name\":\"thread_name\",\"args\":{\"name\":"
+                    + JsonProfileWriter.quote(buffer.name) + "}}");
+            sep = ",\n";
+            synchronized (buffer) {
+                for (int i = 0; i < buffer.size; i++) {
+                    CallTree.Node node = buffer.nodes[i];
+                    out.write(sep);
+                    out.write("{\"ph\":\"X\",\"pid\":1,\"tid\":" + buffer.tid
+                            + ",\"ts\":" + micros(buffer.starts[i] - origin)
+                            + ",\"dur\":" + micros(buffer.ends[i] - buffer.starts[i])
+                            + ",\"cat\":\"" + node.getKind().name().toLowerCase(Locale.ENGLISH)
+                            + "\",\"name\":" + JsonProfileWriter.quote(node.getName()) + "}");
+                }
+            }
+        }
+        out.write("\n]}\n");
+    }
+
+    /**
+     * Method micros.
+     *
+     * @param ns long
+     * @return the nanoseconds in microseconds, to three decimals
+     */
+    private static String micros(long ns) {
+        return (ns < 0 ? "-" : "") + Math.abs(ns) / 1000
+                + "." + String.format("%03d", Math.abs(ns) % 1000);
+    }
+
+    /**
+     * The spans of one thread.
+     */
+    private static final class Buffer {
+        /**
+         * Field tid.
+         */
+        private final long tid;
+
+        /**
+         * Field name.
+         */
+        private final String name;
+
+        /**
+         * Field nodes.
+         */
+        private CallTree.Node[] nodes = new CallTree.Node[256];
+
+        /**
+         * Field starts.
+         */
+        private long[] starts = new long[256];
+
+        /**
+         * Field ends.
+         */
+        private long[] ends = new long[256];
+
+        /**
+         * Field size.
+         */
+        private int size = 0;
+
+        /**
+         * Constructor for Buffer.
+         *
+         * @param thread Thread
+         */
+        Buffer(Thread thread) {
+            tid = thread.getId();
+            name = thread.getName();
+        }
+
+        /**
+         * Method add.
+         *
+         * @param node  CallTree.Node
+         * @param start long
+         * @param end   long
+         */
+        synchronized void add(CallTree.Node node, long start, long end) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            nodes[size] = node;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.process;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.EnumeratedAttribute;
+
+import net.sf.antcontrib.util.ThreadPool;
+
+/**
+ * The kind of threads a parallel task runs its work on:
+ * "platform" for ordinary threads, "virtual" for virtual threads
+ * where the JVM supports them.
+ *
+ * @see EnumeratedAttribute
+ */
+public class ExecutorKind extends EnumeratedAttribute {
+    /**
+     * Field PLATFORM.
+     * (value is 0)
+     */
+    public static final int PLATFORM = 0;
+
+    /**
+     * Field VIRTUAL.
+     * (value is 1)
+     */
+    public static final int VIRTUAL = 1;
+
+    /**
+     * get the values.
+     *
+     * @return an array of the allowed values for this attribute.
+     */
+    public String[] getValues() {
+        return new String[]{"platform", "virtual"};
+    }
+
+    /**
+     * Get the factory for the threads of the given kind. Virtual
+     * threads fall back to platform threads on a JVM without them.
+     *
+     * @param kind the kind of threads, null for platform threads
+     * @param task the task to log the fall back for
+     * @return a ThreadFactory, or null for the default factory
+     */
+    public static ThreadFactory getThreadFactory(ExecutorKind kind, Task task) {
+        if (kind == null || kind.getIndex() != VIRTUAL) {
+            return null;
+        }
+        ThreadFactory factory = ThreadPool.virtualThreadFactory();
+        if (factory == null) {
+            task.log("Virtual threads are not supported by this JVM,"
+                    + " using platform threads", Project.MSG_VERBOSE);
+        }
+        return factory;
+    }
+}
@@ -70,13 +70,18 @@ public class Limit extends Task implements TaskContainer {
      * Field currentTask.
      * Storage for currently executing task
      */
-    private Task currentTask = null;
+    private volatile Task currentTask = null;
 
     /**
      * Field taskRunner.
      * Used to control thread stoppage
      */
-    private Thread taskRunner = null;
+    private volatile Runner taskRunner = null;
+
+    /**
+     * Field threadPoolRefId.
+     */
+    private String threadPoolRefId = null;
 
     /**
      * Field failOnError.
@@ -244,6 +249,16 @@ public class Limit extends Task implements TaskContainer {
         timeoutValue = v;
     }
 
+    /**
+     * Run the nested tasks on a thread of the given thread pool
+     * rather than on a thread of their own.
+     *
+     * @param threadPoolRefId the id of the thread pool
+     */
+    public void setThreadPoolRefId(String threadPoolRefId) {
+        this.threadPoolRefId = threadPoolRefId;
+    }
+
     /**
      * Execute all nested tasks, but stopping execution of nested tasks after
      * maxwait or when all tasks are done, whichever is first.
@@ -253,36 +268,25 @@ public class Limit extends Task implements TaskContainer {
     public void execute() throws BuildException {
         try {
             // start executing nested tasks
-            final Thread runner = new Thread() {
-                public void run() {
-                    Enumeration<Task> e = tasks.elements();
-                    while (e.hasMoreElements()) {
-                        if (taskRunner != this) {
-                            break;
-                        }
-                        currentTask = e.nextElement();
-                        try {
-                            currentTask.perform();
-                        } catch (Exception ex) {
-                            if (failOnError) {
-                                exception = ex;
-                                return;
-                            } else {
-                                exception = ex;
-                            }
-                        }
-                    }
-                }
-            };
+            final Runner runner = new Runner();
             taskRunner = runner;
-            runner.start();
+            ThreadPoolType pool = threadPoolRefId == null ? null
+                    : ThreadPoolType.getThreadPool(getProject(), threadPoolRefId);
+            // a worker of the pool waiting on the pool could wait forever
+            if (pool == null || pool.isWorkerThread()) {
+                new Thread(runner).start();
+            } else {
+                pool.getExecutor().execute(runner);
+            }
             runner.join(unit.toMillis(maxwait));
 
             // stop executing the nested tasks
-            if (runner.isAlive()) {
+            if (!runner.isDone()) {
                 taskRunner = null;
                 runner.interrupt();
-                int index = tasks.indexOf(currentTask);
+                // a runner queued on a busy pool may not have started any
+                Task current = currentTask;
+                int index = current == null ? -1 : tasks.indexOf(current);
                 StringBuilder notRan = new StringBuilder();
                 for (int i = index + 1; i < tasks.size(); i++) {
                     notRan.append('<').append(tasks.get(i).getTaskName()).append('>');
@@ -298,14 +302,21 @@ public class Limit extends Task implements TaskContainer {
 
                 // create output message
                 StringBuilder msg = new StringBuilder();
-                msg.append("Interrupted task <")
-                        .append(currentTask.getTaskName())
-                        .append(">. Waited ")
-                        .append((maxwait)).append(" ").append(unit.getValue())
-                        .append(", but this task did not complete.")
-                        .append((notRan.length() > 0
-                                ? " The following tasks did not execute: " + notRan.toString() + "."
-                                : ""));
+                if (current == null) {
+                    msg.append("No task had started. Waited ")
+                            .append((maxwait)).append(" ").append(unit.getValue())
+                            .append(", but the tasks did not get to run.");
+                } else {
+                    msg.append("Interrupted task <")
+                            .append(current.getTaskName())
+                            .append(">. Waited ")
+                            .append((maxwait)).append(" ").append(unit.getValue())
+                            .append(", but this task did not complete.");
+                }
+                if (notRan.length() > 0) {
+                    msg.append(" The following tasks did not execute: ")
+                            .append(notRan).append(".");
+                }
 
                 // deal with it
                 if (failOnError) {
@@ -321,6 +332,105 @@ public class Limit extends Task implements TaskContainer {
         }
     }
 
+    /**
+     * Runs the nested tasks, on a thread of its own or of a pool.
+     */
+    private class Runner implements Runnable {
+        /**
+         * Field thread.
+         */
+        private Thread thread = null;
+
+        /**
+         * Field done.
+         */
+        private boolean done = false;
+
+        /**
+         * Method run.
+         *
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            try {
+                runTasks();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    done = true;
+                    notifyAll();
+                }
+                // do not leave a pool thread interrupted
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * Method runTasks.
+         */
+        private void runTasks() {
+            Enumeration<Task> e = tasks.elements();
+            while (e.hasMoreElements()) {
+                if (taskRunner != this) {
+                    break;
+                }
+                currentTask = e.nextElement();
+                try {
+                    currentTask.perform();
+                } catch (Exception ex) {
+                    if (failOnError) {
+                        exception = ex;
+                        return;
+                    } else {
+                        exception = ex;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Wait for the tasks to finish.
+         *
+         * @param millis the time to wait, 0 to wait forever
+         * @throws InterruptedException if interrupted while waiting
+         */
+        synchronized void join(long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (!done) {
+                if (millis == 0) {
+                    wait();
+                } else {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        return;
+                    }
+                    wait(left);
+                }
+            }
+        }
+
+        /**
+         * Method isDone.
+         *
+         * @return true if the tasks have finished
+         */
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Interrupt the running task, if any.
+         */
+        synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
     /**
      * The enumeration of units:
      * millisecond, second, minute, hour, day, week.
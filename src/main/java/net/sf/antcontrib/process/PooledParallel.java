@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.process;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Location;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.Parallel;
+
+import net.sf.antcontrib.util.WorkQueue;
+
+/**
+ * The <code>parallel</code> task, with the option to run the nested
+ * tasks on the threads of a shared <code>&lt;threadpool&gt;</code>.
+ * <p>Without a <code>threadpoolrefid</code>, or when daemons or a
+ * timeout are used, this behaves exactly like Ant's own
+ * <code>parallel</code>.</p>
+ */
+public class PooledParallel extends Parallel {
+    /**
+     * Field threadPoolRefId.
+     */
+    private String threadPoolRefId = null;
+
+    /**
+     * Field tasks.
+     */
+    private final List<Task> tasks = new ArrayList<Task>();
+
+    /**
+     * Field threadCount.
+     */
+    private int threadCount = 0;
+
+    /**
+     * Field failOnAny.
+     */
+    private boolean failOnAny = false;
+
+    /**
+     * Field plain.
+     * Set if a feature that only Ant's parallel supports is used.
+     */
+    private boolean plain = false;
+
+    /**
+     * Field failures.
+     */
+    private final List<Throwable> failures = new ArrayList<Throwable>();
+
+    /**
+     * Set the id of the thread pool to run the nested tasks on.
+     *
+     * @param threadPoolRefId String
+     */
+    public void setThreadPoolRefId(String threadPoolRefId) {
+        this.threadPoolRefId = threadPoolRefId;
+    }
+
+    /**
+     * Method addTask.
+     *
+     * @param nestedTask Task
+     */
+    public void addTask(Task nestedTask) {
+        tasks.add(nestedTask);
+        super.addTask(nestedTask);
+    }
+
+    /**
+     * Method setThreadCount.
+     *
+     * @param numThreads int
+     */
+    public void setThreadCount(int numThreads) {
+        threadCount = numThreads;
+        super.setThreadCount(numThreads);
+    }
+
+    /**
+     * Method setFailOnAny.
+     *
+     * @param failOnAny boolean
+     */
+    public void setFailOnAny(boolean failOnAny) {
+        this.failOnAny = failOnAny;
+        super.setFailOnAny(failOnAny);
+    }
+
+    /**
+     * Method setTimeout.
+     *
+     * @param timeout long
+     */
+    public void setTimeout(long timeout) {
+        plain = true;
+        super.setTimeout(timeout);
+    }
+
+    /**
+     * Method addDaemons.
+     *
+     * @param daemonTasks TaskList
+     */
+    public void addDaemons(TaskList daemonTasks) {
+        plain = true;
+        super.addDaemons(daemonTasks);
+    }
+
+    /**
+     * Method execute.
+     *
+     * @throws BuildException if any of the nested tasks fails
+     */
+    public void execute() throws BuildException {
+        if (threadPoolRefId == null) {
+            super.execute();
+            return;
+        }
+        if (plain) {
+            log("Daemons and timeouts are not supported on a thread pool,"
+                    + " using separate threads", Project.MSG_VERBOSE);
+            super.execute();
+            return;
+        }
+        ThreadPoolType pool = ThreadPoolType.getThreadPool(getProject(), threadPoolRefId);
+        WorkQueue queue = pool.createWorkQueue(threadCount, 0);
+        failures.clear();
+        try {
+            for (final Task task : tasks) {
+                if (failOnAny && hasFailed()) {
+                    break;
+                }
+                queue.submit(new Runnable() {
+                    public void run() {
+                        if (failOnAny && hasFailed()) {
+                            return;
+                        }
+                        try {
+                            task.perform();
+                        } catch (Throwable t) {
+                            failed(t);
+                        }
+                    }
+                });
+            }
+            queue.await();
+        } catch (InterruptedException e) {
+            throw new BuildException("Parallel execution interrupted.");
+        }
+        rethrow();
+    }
+
+    /**
+     * Method hasFailed.
+     *
+     * @return boolean
+     */
+    private synchronized boolean hasFailed() {
+        return !failures.isEmpty();
+    }
+
+    /**
+     * Method failed.
+     *
+     * @param t Throwable
+     */
+    private synchronized void failed(Throwable t) {
+        failures.add(t);
+    }
+
+    /**
+     * Report the failures the same way Ant's parallel does.
+     */
+    private void rethrow() {
+        if (failures.size() == 1) {
+            Throwable t = failures.get(0);
+            if (t instanceof BuildException) {
+                throw (BuildException) t;
+            }
+            throw new BuildException(t);
+        }
+        if (failures.size() > 1) {
+            StringBuilder message = new StringBuilder();
+            Location location = Location.UNKNOWN_LOCATION;
+            for (Throwable t : failures) {
+                if (t instanceof BuildException
+                        && location == Location.UNKNOWN_LOCATION) {
+                    location = ((BuildException) t).getLocation();
+                }
+                message.append(System.getProperty("line.separator"))
+                        .append(t.getMessage());
+            }
+            throw new BuildException(message.toString(), location);
+        }
+    }
+}
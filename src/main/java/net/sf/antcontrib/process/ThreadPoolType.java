@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.DataType;
+
+import net.sf.antcontrib.util.ThreadPool;
+import net.sf.antcontrib.util.WorkQueue;
+
+/**
+ * A named pool of worker threads that lives for the whole build.
+ * <p>Parallel loops and containers that reference the pool run their
+ * work on its threads instead of starting threads of their own, so
+ * threads are reused from one invocation to the next and the total
+ * concurrency of every loop sharing the pool, nested or not, never
+ * exceeds <code>maxthreads</code>.</p>
+ * <pre>
+ *   &lt;threadpool id="workers" maxthreads="8"/&gt;
+ *   &lt;for list="..." param="x" parallel="true" threadpoolrefid="workers"&gt;
+ *     ...
+ *   &lt;/for&gt;
+ * </pre>
+ * <p>The threads are shut down when the build finishes.</p>
+ */
+public class ThreadPoolType extends DataType {
+    /**
+     * Field maxThreads.
+     */
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Field pool.
+     * Shared with clones so that a pool passed on to a sub-project
+     * by reference is still the same pool.
+     */
+    private final Pool pool = new Pool();
+
+    /**
+     * Constructor for ThreadPoolType.
+     *
+     * @param p Project
+     */
+    public ThreadPoolType(Project p) {
+        super();
+        setProject(p);
+    }
+
+    /**
+     * Set the maximum number of worker threads.
+     *
+     * @param maxThreads int
+     */
+    public void setMaxThreads(int maxThreads) {
+        if (isReference()) {
+            tooManyAttributes();
+        }
+        if (maxThreads < 1) {
+            throw new BuildException("Illegal value for maxThreads " + maxThreads
+                    + " it should be > 0");
+        }
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Method getMaxThreads.
+     *
+     * @return the maximum number of worker threads
+     */
+    public int getMaxThreads() {
+        if (isReference()) {
+            return getRef().getMaxThreads();
+        }
+        return maxThreads;
+    }
+
+    /**
+     * Method getExecutor.
+     * The threads are started the first time they are needed.
+     *
+     * @return the executor running work on the pool
+     */
+    public Executor getExecutor() {
+        if (isReference()) {
+            return getRef().getExecutor();
+        }
+        return pool.getExecutor(this);
+    }
+
+    /**
+     * Method isWorkerThread.
+     *
+     * @return true if the current thread is a worker of this pool
+     */
+    public boolean isWorkerThread() {
+        if (isReference()) {
+            return getRef().isWorkerThread();
+        }
+        Thread t = Thread.currentThread();
+        return t instanceof Worker && ((Worker) t).pool == pool;
+    }
+
+    /**
+     * Create a work queue for one invocation of a parallel task.
+     *
+     * @param parallelism the maximum number of tasks of the queue to
+     *                    run at once, 0 or less for the pool size
+     * @param capacity    the maximum number of tasks waiting to be run,
+     *                    0 or less for no limit
+     * @return a new WorkQueue
+     */
+    public WorkQueue createWorkQueue(int parallelism, int capacity) {
+        return new WorkQueue(getExecutor(), parallelism, capacity,
+                isWorkerThread());
+    }
+
+    /**
+     * Method getRef.
+     *
+     * @return ThreadPoolType
+     */
+    protected ThreadPoolType getRef() {
+        return super.getCheckedRef(ThreadPoolType.class, "threadpool");
+    }
+
+    /**
+     * Look up the thread pool with the given id.
+     *
+     * @param project the project holding the reference
+     * @param refId   the id of the thread pool
+     * @return ThreadPoolType
+     */
+    public static ThreadPoolType getThreadPool(Project project, String refId) {
+        Object ref = project.getReference(refId);
+        if (ref == null) {
+            throw new BuildException("Reference '" + refId
+                    + "' is not defined.");
+        }
+        if (!(ref instanceof ThreadPoolType)) {
+            throw new BuildException("Reference '" + refId
+                    + "' is not of the correct type.");
+        }
+        return (ThreadPoolType) ref;
+    }
+
+    /**
+     * The threads behind a pool.
+     */
+    private static class Pool implements ThreadFactory, BuildListener {
+        /**
+         * Field threads.
+         */
+        private ThreadPool threads;
+
+        /**
+         * Field threadCount.
+         */
+        private int threadCount = 0;
+
+        /**
+         * Field project.
+         */
+        private Project project;
+
+        /**
+         * Method getExecutor.
+         *
+         * @param type ThreadPoolType
+         * @return Executor
+         */
+        synchronized Executor getExecutor(ThreadPoolType type) {
+            if (threads == null) {
+                threads = new ThreadPool(type.getMaxThreads(), this);
+                project = type.getProject();
+                if (project != null) {
+                    project.addBuildListener(this);
+                }
+            }
+            return threads.getExecutor();
+        }
+
+        /**
+         * Method newThread.
+         *
+         * @param r Runnable
+         * @return Thread
+         * @see java.util.concurrent.ThreadFactory#newThread(Runnable)
+         */
+        public synchronized Thread newThread(Runnable r) {
+            Thread t = new Worker(this, r, "threadpool-" + (++threadCount));
+            t.setDaemon(true);
+            return t;
+        }
+
+        /**
+         * Shut the threads down when the build is over.
+         *
+         * @param event BuildEvent
+         */
+        public void buildFinished(BuildEvent event) {
+            synchronized (this) {
+                if (threads != null) {
+                    threads.shutdown();
+                    threads = null;
+                }
+            }
+            if (project != null) {
+                project.removeBuildListener(this);
+            }
+        }
+
+        /**
+         * Method buildStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void buildStarted(BuildEvent event) {
+        }
+
+        /**
+         * Method targetStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void targetStarted(BuildEvent event) {
+        }
+
+        /**
+         * Method targetFinished.
+         *
+         * @param event BuildEvent
+         */
+        public void targetFinished(BuildEvent event) {
+        }
+
+        /**
+         * Method taskStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void taskStarted(BuildEvent event) {
+        }
+
+        /**
+         * Method taskFinished.
+         *
+         * @param event BuildEvent
+         */
+        public void taskFinished(BuildEvent event) {
+        }
+
+        /**
+         * Method messageLogged.
+         *
+         * @param event BuildEvent
+         */
+        public void messageLogged(BuildEvent event) {
+        }
+    }
+
+    /**
+     * A worker thread, which knows the pool it belongs to.
+     */
+    private static class Worker extends Thread {
+        /**
+         * Field pool.
+         */
+        private final Pool pool;
+
+        /**
+         * Constructor for Worker.
+         *
+         * @param pool Pool
+         * @param r    Runnable
+         * @param name String
+         */
+        Worker(Pool pool, Runnable r, String name) {
+            super(r, name);
+            this.pool = pool;
+        }
+    }
+}
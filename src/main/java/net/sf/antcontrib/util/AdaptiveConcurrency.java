@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Adjusts the parallelism of a {@link WorkQueue} to the work it runs.
+ * <p>The queue starts at one task per processor. Completions are
+ * counted over windows of time; after each window one more task is
+ * allowed to run at once for as long as that raises the number of
+ * completions per second. Once a step no longer pays off it is taken
+ * back and the parallelism stops growing. The parallelism is not
+ * raised while the system load average is above the number of
+ * processors, and is lowered again while it is more than twice
+ * that.</p>
+ */
+public class AdaptiveConcurrency {
+    /**
+     * Field AUTO.
+     * The attribute value asking for adaptive concurrency.
+     */
+    public static final String AUTO = "auto";
+
+    /**
+     * Field WINDOW.
+     * The shortest window, in nanoseconds, to measure throughput over.
+     */
+    private static final long WINDOW = 250000000L;
+
+    /**
+     * Field GAIN.
+     * The least relative gain in throughput that justifies a step.
+     */
+    private static final double GAIN = 0.05;
+
+    /**
+     * Field processors.
+     */
+    private final int processors = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Field queue.
+     */
+    private final WorkQueue queue;
+
+    /**
+     * Field task.
+     */
+    private final Task task;
+
+    /**
+     * Field ceiling.
+     * The level the parallelism may grow to.
+     */
+    private int ceiling;
+
+    /**
+     * Field level.
+     */
+    private int level;
+
+    /**
+     * Field grown.
+     * Set if the last adjustment added a worker.
+     */
+    private boolean grown = false;
+
+    /**
+     * Field throughput.
+     * Completions per second in the last window, -1 before the first.
+     */
+    private double throughput = -1;
+
+    /**
+     * Field windowStart.
+     */
+    private long windowStart = System.nanoTime();
+
+    /**
+     * Field completed.
+     * Completions in the current window.
+     */
+    private int completed = 0;
+
+    /**
+     * Constructor for AdaptiveConcurrency.
+     *
+     * @param queue   the queue to control, created with
+     *                {@link #initialParallelism(int)} as its
+     *                parallelism and at least <code>max</code> as its
+     *                capacity
+     * @param max     the most tasks to ever run at once
+     * @param task    the task to log adjustments for
+     */
+    public AdaptiveConcurrency(WorkQueue queue, int max, Task task) {
+        this.queue = queue;
+        this.task = task;
+        this.ceiling = max;
+        this.level = queue.getParallelism();
+    }
+
+    /**
+     * The parallelism to start with.
+     *
+     * @param max the most tasks to ever run at once
+     * @return int
+     */
+    public static int initialParallelism(int max) {
+        return Math.min(Runtime.getRuntime().availableProcessors(), max);
+    }
+
+    /**
+     * The most tasks to run at once on threads of their own.
+     *
+     * @return int
+     */
+    public static int maximumParallelism() {
+        return 4 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Called when a task of the queue has finished.
+     */
+    public void taskCompleted() {
+        int next;
+        synchronized (this) {
+            completed++;
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (completed < level || elapsed < WINDOW) {
+                return;
+            }
+            double current = completed * 1e9 / elapsed;
+            completed = 0;
+            windowStart = now;
+            next = adjust(current, loadAverage());
+            throughput = current;
+            if (next == level) {
+                return;
+            }
+            level = next;
+        }
+        task.log("Running " + next + " iterations at once", Project.MSG_VERBOSE);
+        queue.setParallelism(next);
+    }
+
+    /**
+     * Decide on the parallelism for the next window.
+     *
+     * @param current the throughput of the window just finished
+     * @param load    the system load average, negative if unknown
+     * @return the new parallelism
+     */
+    private int adjust(double current, double load) {
+        if (load > 2 * processors && level > 1) {
+            // the machine is overloaded, whatever else is running on it
+            grown = false;
+            ceiling = level - 1;
+            return level - 1;
+        }
+        if (grown && current < throughput * (1 + GAIN)) {
+            // the last worker added did not pay for itself
+            grown = false;
+            ceiling = level - 1;
+            return level - 1;
+        }
+        if (level < ceiling && (load < 0 || load < processors)) {
+            grown = true;
+            return level + 1;
+        }
+        grown = false;
+        return level;
+    }
+
+    /**
+     * Method loadAverage.
+     *
+     * @return the system load average, negative if unknown
+     */
+    private static double loadAverage() {
+        return ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+    }
+}
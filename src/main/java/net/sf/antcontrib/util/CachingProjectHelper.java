@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Location;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.ProjectHelperRepository;
+import org.apache.tools.ant.helper.AntXMLContext;
+import org.apache.tools.ant.helper.ProjectHelper2;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.FileProvider;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.util.FileUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A ProjectHelper2 that reads each build file only once.
+ * <p>The parser events of a build file are recorded the first time it
+ * is parsed, and played back to configure later projects from the same
+ * file, for as long as the file keeps its size and modification time.
+ * The projects are configured exactly as if the file had been read
+ * again, only without the I/O and the XML parsing. Files pulled in as
+ * XML entities are not checked for changes.</p>
+ */
+public class CachingProjectHelper extends ProjectHelper2 {
+    /**
+     * Field MAX_FILES.
+     * The number of build files to keep the events of.
+     */
+    private static final int MAX_FILES = 32;
+
+    /**
+     * Field REFID_CONTEXT.
+     * The reference ProjectHelper2 keeps the parsing context under.
+     */
+    private static final String REFID_CONTEXT = "ant.parsing.context";
+
+    /**
+     * Field FILE_UTILS.
+     */
+    private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+
+    /**
+     * Field CACHE.
+     */
+    private static final Map<String, Recording> CACHE =
+            new LinkedHashMap<String, Recording>(MAX_FILES, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, Recording> eldest) {
+                    return size() > MAX_FILES;
+                }
+            };
+
+    /**
+     * Configure a project from a build file, reusing the events of an
+     * earlier parse of the same file if it has not changed.
+     *
+     * @param project   the project to configure
+     * @param buildFile the build file
+     */
+    public static void configureProject(Project project, File buildFile) {
+        ProjectHelper helper = ProjectHelperRepository.getInstance()
+                .getProjectHelperForBuildFile(new FileResource(buildFile));
+        if (helper.getClass() == ProjectHelper2.class) {
+            helper = new CachingProjectHelper();
+        }
+        project.addReference(ProjectHelper.PROJECTHELPER_REFERENCE, helper);
+        helper.parse(project, buildFile);
+    }
+
+    /**
+     * Parse a build file, or play back its recorded events.
+     *
+     * @param project the project to configure
+     * @param source  the build file
+     * @param handler the handler to pass the events to
+     * @throws BuildException if the file cannot be read or is invalid
+     */
+    public void parse(Project project, Object source, RootHandler handler)
+            throws BuildException {
+        File file = null;
+        if (source instanceof File) {
+            file = (File) source;
+        } else if (source instanceof Resource) {
+            FileProvider fp = ((Resource) source).as(FileProvider.class);
+            if (fp != null) {
+                file = fp.getFile();
+            }
+        }
+        AntXMLContext context = (AntXMLContext) project.getReference(REFID_CONTEXT);
+        if (file == null || context == null) {
+            super.parse(project, source, handler);
+            return;
+        }
+        file = FILE_UTILS.normalize(file.getAbsolutePath());
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            super.parse(project, source, handler);
+            return;
+        }
+        Recording recording;
+        synchronized (CACHE) {
+            recording = CACHE.get(key);
+        }
+        if (recording == null || !recording.isCurrent(file)) {
+            recording = new Recording(file, context, getMainHandler());
+            super.parse(project, source, recording);
+            synchronized (CACHE) {
+                CACHE.put(key, recording);
+            }
+            return;
+        }
+        context.setBuildFile(file);
+        project.log("replaying buildfile " + file, Project.MSG_VERBOSE);
+        recording.replay(handler);
+    }
+
+    /**
+     * The events of one parse of a build file. Recording them is done
+     * as a root handler that the parser feeds, which also passes them on.
+     */
+    private static class Recording extends RootHandler {
+        /**
+         * Field lastModified.
+         */
+        private final long lastModified;
+
+        /**
+         * Field length.
+         */
+        private final long length;
+
+        /**
+         * Field events.
+         */
+        private final List<Event> events = new ArrayList<Event>();
+
+        /**
+         * Field locator.
+         */
+        private Locator locator;
+
+        /**
+         * Constructor for Recording.
+         *
+         * @param file        File
+         * @param context     AntXMLContext
+         * @param mainHandler AntHandler
+         */
+        Recording(File file, AntXMLContext context, AntHandler mainHandler) {
+            super(context, mainHandler);
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        /**
+         * Method isCurrent.
+         *
+         * @param file File
+         * @return true if the file has not changed since it was recorded
+         */
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+
+        /**
+         * Play the events back to a handler.
+         *
+         * @param handler RootHandler
+         */
+        void replay(RootHandler handler) {
+            ReplayLocator at = new ReplayLocator();
+            handler.setDocumentLocator(at);
+            try {
+                for (Event e : events) {
+                    at.moveTo(e);
+                    e.replay(handler);
+                }
+            } catch (SAXParseException exc) {
+                Location location = new Location(exc.getSystemId(),
+                        exc.getLineNumber(), exc.getColumnNumber());
+                Throwable t = exc.getException();
+                if (t instanceof BuildException) {
+                    BuildException be = (BuildException) t;
+                    if (be.getLocation() == Location.UNKNOWN_LOCATION) {
+                        be.setLocation(location);
+                    }
+                    throw be;
+                }
+                throw new BuildException(exc.getMessage(), t == null ? exc : t, location);
+            } catch (SAXException exc) {
+                Throwable t = exc.getException();
+                if (t instanceof BuildException) {
+                    throw (BuildException) t;
+                }
+                throw new BuildException(exc.getMessage(), t == null ? exc : t);
+            }
+        }
+
+        /**
+         * Method record.
+         *
+         * @param e Event
+         */
+        private void record(Event e) {
+            if (locator != null) {
+                e.systemId = locator.getSystemId();
+                e.publicId = locator.getPublicId();
+                e.line = locator.getLineNumber();
+                e.column = locator.getColumnNumber();
+            }
+            events.add(e);
+        }
+
+        /**
+         * Method setDocumentLocator.
+         *
+         * @param locator Locator
+         */
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+            super.setDocumentLocator(locator);
+        }
+
+        /**
+         * Method startElement.
+         *
+         * @param uri   String
+         * @param tag   String
+         * @param qname String
+         * @param attrs Attributes
+         * @throws SAXParseException if the element is invalid
+         */
+        public void startElement(String uri, String tag, String qname,
+                                 Attributes attrs) throws SAXParseException {
+            record(new StartElement(uri, tag, qname, attrs));
+            super.startElement(uri, tag, qname, attrs);
+        }
+
+        /**
+         * Method endElement.
+         *
+         * @param uri   String
+         * @param name  String
+         * @param qName String
+         * @throws SAXException if the element is invalid
+         */
+        public void endElement(String uri, String name, String qName)
+                throws SAXException {
+            record(new EndElement(uri, name, qName));
+            super.endElement(uri, name, qName);
+        }
+
+        /**
+         * Method characters.
+         *
+         * @param buf   char[]
+         * @param start int
+         * @param count int
+         * @throws SAXParseException if the text is not allowed
+         */
+        public void characters(char[] buf, int start, int count)
+                throws SAXParseException {
+            record(new Characters(buf, start, count));
+            super.characters(buf, start, count);
+        }
+
+        /**
+         * Method startPrefixMapping.
+         *
+         * @param prefix String
+         * @param uri    String
+         */
+        public void startPrefixMapping(String prefix, String uri) {
+            record(new PrefixMapping(prefix, uri));
+            super.startPrefixMapping(prefix, uri);
+        }
+
+        /**
+         * Method endPrefixMapping.
+         *
+         * @param prefix String
+         */
+        public void endPrefixMapping(String prefix) {
+            record(new PrefixMapping(prefix, null));
+            super.endPrefixMapping(prefix);
+        }
+    }
+
+    /**
+     * A recorded parser event, with where in the file it happened.
+     */
+    private abstract static class Event {
+        /**
+         * Field systemId.
+         */
+        private String systemId;
+
+        /**
+         * Field publicId.
+         */
+        private String publicId;
+
+        /**
+         * Field line.
+         */
+        private int line = -1;
+
+        /**
+         * Field column.
+         */
+        private int column = -1;
+
+        /**
+         * Pass the event to a handler.
+         *
+         * @param handler RootHandler
+         * @throws SAXException if the handler rejects the event
+         */
+        abstract void replay(RootHandler handler) throws SAXException;
+    }
+
+    /**
+     * Event startElement.
+     */
+    private static class StartElement extends Event {
+        /**
+         * Field uri.
+         */
+        private final String uri;
+
+        /**
+         * Field tag.
+         */
+        private final String tag;
+
+        /**
+         * Field qname.
+         */
+        private final String qname;
+
+        /**
+         * Field attrs.
+         */
+        private final Attributes attrs;
+
+        /**
+         * Constructor for StartElement.
+         *
+         * @param uri   String
+         * @param tag   String
+         * @param qname String
+         * @param attrs Attributes
+         */
+        StartElement(String uri, String tag, String qname, Attributes attrs) {
+            this.uri = uri;
+            this.tag = tag;
+            this.qname = qname;
+            this.attrs = new AttributesImpl(attrs);
+        }
+
+        /**
+         * Method replay.
+         *
+         * @param handler RootHandler
+         * @throws SAXException if the handler rejects the event
+         */
+        void replay(RootHandler handler) throws SAXException {
+            handler.startElement(uri, tag, qname, attrs);
+        }
+    }
+
+    /**
+     * Event endElement.
+     */
+    private static class EndElement extends Event {
+        /**
+         * Field uri.
+         */
+        private final String uri;
+
+        /**
+         * Field name.
+         */
+        private final String name;
+
+        /**
+         * Field qname.
+         */
+        private final String qname;
+
+        /**
+         * Constructor for EndElement.
+         *
+         * @param uri   String
+         * @param name  String
+         * @param qname String
+         */
+        EndElement(String uri, String name, String qname) {
+            this.uri = uri;
+            this.name = name;
+            this.qname = qname;
+        }
+
+        /**
+         * Method replay.
+         *
+         * @param handler RootHandler
+         * @throws SAXException if the handler rejects the event
+         */
+        void replay(RootHandler handler) throws SAXException {
+            handler.endElement(uri, name, qname);
+        }
+    }
+
+    /**
+     * Event characters.
+     */
+    private static class Characters extends Event {
+        /**
+         * Field text.
+         */
+        private final char[] text;
+
+        /**
+         * Constructor for Characters.
+         *
+         * @param buf   char[]
+         * @param start int
+         * @param count int
+         */
+        Characters(char[] buf, int start, int count) {
+            text = new char[count];
+            System.arraycopy(buf, start, text, 0, count);
+        }
+
+        /**
+         * Method replay.
+         *
+         * @param handler RootHandler
+         * @throws SAXException if the handler rejects the event
+         */
+        void replay(RootHandler handler) throws SAXException {
+            handler.characters(text, 0, text.length);
+        }
+    }
+
+    /**
+     * Event startPrefixMapping, or endPrefixMapping if there is no uri.
+     */
+    private static class PrefixMapping extends Event {
+        /**
+         * Field prefix.
+         */
+        private final String prefix;
+
+        /**
+         * Field uri.
+         */
+        private final String uri;
+
+        /**
+         * Constructor for PrefixMapping.
+         *
+         * @param prefix String
+         * @param uri    String
+         */
+        PrefixMapping(String prefix, String uri) {
+            this.prefix = prefix;
+            this.uri = uri;
+        }
+
+        /**
+         * Method replay.
+         *
+         * @param handler RootHandler
+         */
+        void replay(RootHandler handler) {
+            if (uri == null) {
+                handler.endPrefixMapping(prefix);
+            } else {
+                handler.startPrefixMapping(prefix, uri);
+            }
+        }
+    }
+
+    /**
+     * A locator that points at the recorded position of the event being
+     * played back.
+     */
+    private static class ReplayLocator implements Locator {
+        /**
+         * Field event.
+         */
+        private Event event;
+
+        /**
+         * Method moveTo.
+         *
+         * @param event Event
+         */
+        void moveTo(Event event) {
+            this.event = event;
+        }
+
+        /**
+         * Method getPublicId.
+         *
+         * @return String
+         */
+        public String getPublicId() {
+            return event == null ? null : event.publicId;
+        }
+
+        /**
+         * Method getSystemId.
+         *
+         * @return String
+         */
+        public String getSystemId() {
+            return event == null ? null : event.systemId;
+        }
+
+        /**
+         * Method getLineNumber.
+         *
+         * @return int
+         */
+        public int getLineNumber() {
+            return event == null ? -1 : event.line;
+        }
+
+        /**
+         * Method getColumnNumber.
+         *
+         * @return int
+         */
+        public int getColumnNumber() {
+            return event == null ? -1 : event.column;
+        }
+    }
+}
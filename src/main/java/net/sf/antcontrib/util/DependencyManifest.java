@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.util.FileUtils;
+
+/**
+ * The targets each source file was mapped to the last time, with the
+ * modification times of both, kept in a file between builds.
+ * <p>A manifest is only good for the mappers it was written with, so it
+ * carries a signature standing for them; a manifest with a different
+ * signature is ignored.</p>
+ */
+public class DependencyManifest {
+    /**
+     * Field SIGNATURE.
+     * Marks the line holding the signature.
+     */
+    private static final String SIGNATURE = "#";
+
+    /**
+     * Field SOURCE.
+     * Marks the line of a source file.
+     */
+    private static final String SOURCE = "S";
+
+    /**
+     * Field TARGET.
+     * Marks the line of a target of the source above.
+     */
+    private static final String TARGET = "T";
+
+    /**
+     * Field file.
+     */
+    private final File file;
+
+    /**
+     * Field signature.
+     */
+    private final String signature;
+
+    /**
+     * Field entries.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Constructor for DependencyManifest.
+     * Reads the manifest if the file exists and has the given signature.
+     *
+     * @param file      the file holding the manifest
+     * @param signature stands for the way the sources are mapped
+     */
+    public DependencyManifest(File file, String signature) {
+        this.file = file;
+        this.signature = signature;
+        if (file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * Get what was recorded for a source.
+     *
+     * @param source File
+     * @return the entry of the source, or null if it was not recorded
+     */
+    public Entry get(File source) {
+        return entries.get(source.getAbsolutePath());
+    }
+
+    /**
+     * Replace the manifest with new entries, and write it.
+     *
+     * @param sources the entry of each source, by absolute path
+     */
+    public void save(Map<String, Entry> sources) {
+        entries.clear();
+        entries.putAll(sources);
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new BuildException("Cannot create " + dir);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(tmp), "UTF-8"));
+            out.write(SIGNATURE + "\t" + signature + "\n");
+            for (Map.Entry<String, Entry> e : sources.entrySet()) {
+                Entry entry = e.getValue();
+                out.write(SOURCE + "\t" + entry.modified + "\t" + e.getKey() + "\n");
+                for (int i = 0; i < entry.targets.size(); i++) {
+                    out.write(TARGET + "\t" + entry.mappers.get(i)
+                            + "\t" + entry.targetModified.get(i)
+                            + "\t" + entry.targets.get(i) + "\n");
+                }
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new BuildException("Cannot write " + file, e);
+        } finally {
+            FileUtils.close(out);
+        }
+    }
+
+    /**
+     * Read the manifest. It is left empty if it has another signature or
+     * cannot be understood.
+     */
+    private void load() {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            String line = in.readLine();
+            if (line == null || !line.equals(SIGNATURE + "\t" + signature)) {
+                return;
+            }
+            Entry entry = null;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(SOURCE + "\t")) {
+                    String[] f = line.split("\t", 3);
+                    entry = new Entry(Long.parseLong(f[1]));
+                    entries.put(f[2], entry);
+                } else if (line.startsWith(TARGET + "\t") && entry != null) {
+                    String[] f = line.split("\t", 4);
+                    entry.addTarget(Integer.parseInt(f[1]), f[3],
+                            Long.parseLong(f[2]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            entries.clear();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            entries.clear();
+        } catch (IOException e) {
+            throw new BuildException("Cannot read " + file, e);
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+
+    /**
+     * A source with the targets it was mapped to.
+     */
+    public static class Entry {
+        /**
+         * Field modified.
+         */
+        private long modified;
+
+        /**
+         * Field mappers.
+         * The index of the mapper each target came from.
+         */
+        private final List<Integer> mappers = new ArrayList<Integer>();
+
+        /**
+         * Field targets.
+         */
+        private final List<String> targets = new ArrayList<String>();
+
+        /**
+         * Field targetModified.
+         */
+        private final List<Long> targetModified = new ArrayList<Long>();
+
+        /**
+         * Constructor for Entry.
+         *
+         * @param modified the modification time of the source
+         */
+        public Entry(long modified) {
+            this.modified = modified;
+        }
+
+        /**
+         * Method getModified.
+         *
+         * @return the modification time of the source
+         */
+        public long getModified() {
+            return modified;
+        }
+
+        /**
+         * Method setModified.
+         *
+         * @param modified the modification time of the source
+         */
+        public void setModified(long modified) {
+            this.modified = modified;
+        }
+
+        /**
+         * Add a target of the source.
+         *
+         * @param mapper   the index of the mapper the target came from
+         * @param target   the absolute path of the target
+         * @param modified the modification time of the target
+         */
+        public void addTarget(int mapper, String target, long modified) {
+            mappers.add(mapper);
+            targets.add(target);
+            targetModified.add(modified);
+        }
+
+        /**
+         * Method size.
+         *
+         * @return the number of targets
+         */
+        public int size() {
+            return targets.size();
+        }
+
+        /**
+         * Method getMapper.
+         *
+         * @param i int
+         * @return the index of the mapper target i came from
+         */
+        public int getMapper(int i) {
+            return mappers.get(i);
+        }
+
+        /**
+         * Method getTarget.
+         *
+         * @param i int
+         * @return the absolute path of target i
+         */
+        public String getTarget(int i) {
+            return targets.get(i);
+        }
+
+        /**
+         * Method getTargetModified.
+         *
+         * @param i int
+         * @return the modification time of target i
+         */
+        public long getTargetModified(int i) {
+            return targetModified.get(i);
+        }
+
+        /**
+         * Method setTargetModified.
+         *
+         * @param i        int
+         * @param modified the modification time of target i
+         */
+        public void setTargetModified(int i, long modified) {
+            targetModified.set(i, modified);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.util.FileUtils;
+
+/**
+ * Content digests of files, kept in a file between builds.
+ * <p>The store remembers the MD5 digest of each source file along with
+ * its size and modification time, and a digest per target standing for
+ * the sources it was last generated from. A file whose size and
+ * modification time have not changed is not read again, so checking an
+ * unchanged file costs about as much as checking its timestamp.</p>
+ * <p>Nothing is written until {@link #record(Map, Collection)} is
+ * called, which is meant to happen once the targets have been
+ * generated. All the users of one digest file within a build share one
+ * store.</p>
+ */
+public final class DigestStore {
+    /**
+     * Field ALGORITHM.
+     */
+    private static final String ALGORITHM = "MD5";
+
+    /**
+     * Field SOURCE.
+     * Marks the line of a source file.
+     */
+    private static final String SOURCE = "S";
+
+    /**
+     * Field TARGET.
+     * Marks the line of a target file.
+     */
+    private static final String TARGET = "T";
+
+    /**
+     * Field BUFFER_SIZE.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Field STORES.
+     */
+    private static final Map<File, DigestStore> STORES = new HashMap<File, DigestStore>();
+
+    /**
+     * Field file.
+     */
+    private final File file;
+
+    /**
+     * Field saved.
+     * The digests of the sources as of the last time they were recorded.
+     */
+    private final Map<String, Entry> saved = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Field current.
+     * The digests of the sources as they are now.
+     */
+    private final Map<String, Entry> current = new HashMap<String, Entry>();
+
+    /**
+     * Field targets.
+     */
+    private final Map<String, String> targets = new LinkedHashMap<String, String>();
+
+    /**
+     * Field stamp.
+     * The modification time of the file as last read or written.
+     */
+    private long stamp;
+
+    /**
+     * Constructor for DigestStore.
+     *
+     * @param file File
+     */
+    private DigestStore(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Get the store kept in a file.
+     *
+     * @param file the file holding the digests, which need not exist yet
+     * @return the store shared by every user of that file
+     */
+    public static DigestStore getInstance(File file) {
+        File key = FileUtils.getFileUtils().normalize(file.getAbsolutePath());
+        synchronized (STORES) {
+            DigestStore store = STORES.get(key);
+            // read the file again if something else changed or removed it
+            if (store == null || store.stamp != FileTimestamps.lastModified(key)) {
+                store = new DigestStore(key);
+                STORES.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Get the digest of the contents of a file as it is now.
+     *
+     * @param source the file
+     * @return the digest as a hex string
+     */
+    public synchronized String digest(File source) {
+        String path = source.getAbsolutePath();
+        long size;
+        long modified;
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(source.toPath(), BasicFileAttributes.class);
+            size = attrs.size();
+            modified = attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            throw new BuildException("Cannot read " + source, e);
+        }
+        Entry entry = current.get(path);
+        if (entry != null && entry.matches(size, modified)) {
+            return entry.digest;
+        }
+        entry = saved.get(path);
+        if (entry == null || !entry.matches(size, modified)) {
+            entry = new Entry(size, modified, hash(source));
+        }
+        current.put(path, entry);
+        return entry.digest;
+    }
+
+    /**
+     * Get the digest a source had when it was last recorded.
+     *
+     * @param source the file
+     * @return the digest, or null if it was never recorded
+     */
+    public synchronized String getRecordedDigest(File source) {
+        Entry entry = saved.get(source.getAbsolutePath());
+        return entry == null ? null : entry.digest;
+    }
+
+    /**
+     * Get the digest recorded for a target.
+     *
+     * @param target the file
+     * @return the digest, or null if none was recorded
+     */
+    public synchronized String getTargetDigest(File target) {
+        return targets.get(target.getAbsolutePath());
+    }
+
+    /**
+     * Record the digests of targets and the current digests of their
+     * sources, and write the store.
+     *
+     * @param targetDigests the digest of each target, by absolute path
+     * @param sources       the sources the targets were generated from
+     */
+    public synchronized void record(Map<String, String> targetDigests,
+                                    Collection<File> sources) {
+        for (File source : sources) {
+            String path = source.getAbsolutePath();
+            Entry entry = current.get(path);
+            if (entry != null) {
+                saved.put(path, entry);
+            }
+        }
+        targets.putAll(targetDigests);
+        save();
+    }
+
+    /**
+     * Get the digest of a list of strings.
+     *
+     * @param parts the strings, in order
+     * @return the digest as a hex string
+     */
+    public static String digest(Iterable<String> parts) {
+        MessageDigest md = newDigest();
+        try {
+            for (String part : parts) {
+                md.update(part.getBytes("UTF-8"));
+                md.update((byte) 0);
+            }
+        } catch (IOException e) {
+            throw new BuildException(e);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Method hash.
+     *
+     * @param source File
+     * @return the digest of the contents of the file
+     */
+    private static String hash(File source) {
+        MessageDigest md = newDigest();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(source);
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new BuildException("Cannot read " + source, e);
+        } finally {
+            FileUtils.close(in);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Method newDigest.
+     *
+     * @return MessageDigest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Method toHex.
+     *
+     * @param bytes byte[]
+     * @return String
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte x : bytes) {
+            b.append(Character.forDigit((x >> 4) & 0xf, 16));
+            b.append(Character.forDigit(x & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Read the store from its file, if there is one. Lines that cannot
+     * be understood are skipped.
+     */
+    private void load() {
+        stamp = FileTimestamps.lastModified(file);
+        if (!file.isFile()) {
+            return;
+        }
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split("\t", 5);
+                try {
+                    if (SOURCE.equals(f[0]) && f.length == 5) {
+                        saved.put(f[4], new Entry(Long.parseLong(f[1]),
+                                Long.parseLong(f[2]), f[3]));
+                    } else if (TARGET.equals(f[0]) && f.length == 3) {
+                        targets.put(f[2], f[1]);
+                    }
+                } catch (NumberFormatException e) {
+                    // skip the line
+                }
+            }
+        } catch (IOException e) {
+            throw new BuildException("Cannot read " + file, e);
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+
+    /**
+     * Write the store to a new file, and put that in place of the old one.
+     */
+    private void save() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new BuildException("Cannot create " + dir);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(tmp), "UTF-8"));
+            for (Map.Entry<String, Entry> e : saved.entrySet()) {
+                Entry entry = e.getValue();
+                out.write(SOURCE + "\t" + entry.size + "\t" + entry.modified
+                        + "\t" + entry.digest + "\t" + e.getKey() + "\n");
+            }
+            for (Map.Entry<String, String> e : targets.entrySet()) {
+                out.write(TARGET + "\t" + e.getValue() + "\t" + e.getKey() + "\n");
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            stamp = FileTimestamps.lastModified(file);
+        } catch (IOException e) {
+            throw new BuildException("Cannot write " + file, e);
+        } finally {
+            FileUtils.close(out);
+        }
+    }
+
+    /**
+     * The digest of a file, with the size and modification time it
+     * was taken at.
+     */
+    private static class Entry {
+        /**
+         * Field size.
+         */
+        private final long size;
+
+        /**
+         * Field modified.
+         */
+        private final long modified;
+
+        /**
+         * Field digest.
+         */
+        private final String digest;
+
+        /**
+         * Constructor for Entry.
+         *
+         * @param size     long
+         * @param modified long
+         * @param digest   String
+         */
+        Entry(long size, long modified, String digest) {
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+        }
+
+        /**
+         * Method matches.
+         *
+         * @param size     long
+         * @param modified long
+         * @return true if the file still has the size and modification
+         *         time the digest was taken at
+         */
+        boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Reads the modification times of files, one system call per file,
+ * optionally on several threads at once.
+ * <p>Checking many files is bound by the latency of each check rather
+ * than by the processor, especially on network file systems, so
+ * running a few checks at once pays off even on a single processor.</p>
+ */
+public final class FileTimestamps {
+    /**
+     * Field MISSING.
+     * The modification time reported for a file that does not exist.
+     */
+    public static final long MISSING = -1L;
+
+    /**
+     * Constructor for FileTimestamps.
+     */
+    private FileTimestamps() {
+    }
+
+    /**
+     * Get the modification time of a file.
+     *
+     * @param file File
+     * @return the modification time in milliseconds, or MISSING if the
+     *         file does not exist or cannot be read
+     */
+    public static long lastModified(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class)
+                    .lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return MISSING;
+        } catch (InvalidPathException e) {
+            return MISSING;
+        }
+    }
+
+    /**
+     * Get the modification times of a list of files.
+     *
+     * @param files   the files to check
+     * @param threads the most files to check at once, 1 or less to
+     *                check them one after the other
+     * @return the modification times, in the order of the files, MISSING
+     *         for those that do not exist
+     */
+    public static long[] lastModified(final List<File> files, int threads) {
+        final long[] times = new long[files.size()];
+        final int stripes = Math.min(threads, files.size());
+        if (stripes <= 1) {
+            for (int i = 0; i < times.length; i++) {
+                times[i] = lastModified(files.get(i));
+            }
+            return times;
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(stripes);
+        for (int s = 0; s < stripes; s++) {
+            final int first = s;
+            tasks.add(new Runnable() {
+                public void run() {
+                    for (int i = first; i < times.length; i += stripes) {
+                        times[i] = lastModified(files.get(i));
+                    }
+                }
+            });
+        }
+        ThreadPool pool = new ThreadPool(stripes);
+        try {
+            pool.invokeAll(tasks);
+        } catch (ExecutionException e) {
+            throw new BuildException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new BuildException(e);
+        } finally {
+            pool.shutdown();
+        }
+        return times;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Keeps track of the files changed in a set of directories.
+ * <p>The directories are watched with the file system's
+ * {@link WatchService}. Each call of {@link #poll()} tells which files
+ * were modified since the last one, and whether files were created or
+ * deleted. If the watch service lost events, or a watched directory
+ * went away, the changes are reported as unknown and everything has
+ * to be looked at again.</p>
+ */
+public class FileWatcher {
+    /**
+     * Field service.
+     */
+    private final WatchService service;
+
+    /**
+     * Field dirs.
+     * The directories watched, by their watch key.
+     */
+    private final Map<WatchKey, File> dirs = new HashMap<WatchKey, File>();
+
+    /**
+     * Field watched.
+     */
+    private final Set<File> watched = new HashSet<File>();
+
+    /**
+     * Constructor for FileWatcher.
+     */
+    public FileWatcher() {
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new BuildException("Cannot watch files", e);
+        }
+    }
+
+    /**
+     * Start watching a directory, if it exists and is not watched
+     * already.
+     *
+     * @param dir File
+     * @return true if the directory is watched
+     */
+    public synchronized boolean watch(File dir) {
+        if (watched.contains(dir)) {
+            return true;
+        }
+        if (!dir.isDirectory()) {
+            return false;
+        }
+        try {
+            WatchKey key = dir.toPath().register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            dirs.put(key, dir);
+            watched.add(dir);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (ClosedWatchServiceException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method isWatched.
+     *
+     * @param dir File
+     * @return true if changes in the directory are being watched
+     */
+    public synchronized boolean isWatched(File dir) {
+        return watched.contains(dir);
+    }
+
+    /**
+     * Collect the changes seen since the last call.
+     *
+     * @return the changes
+     */
+    public synchronized Changes poll() {
+        Changes changes = new Changes();
+        WatchKey key;
+        while ((key = next(changes)) != null) {
+            File dir = dirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                WatchEvent.Kind<?> kind = event.kind();
+                if (kind == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    changes.unknown = true;
+                    continue;
+                }
+                File file = new File(dir, ((Path) event.context()).toString());
+                changes.modified.add(file);
+                if (kind != StandardWatchEventKinds.ENTRY_MODIFY) {
+                    changes.listed = true;
+                }
+            }
+            if (!key.reset()) {
+                // the directory is gone
+                dirs.remove(key);
+                watched.remove(dir);
+                changes.unknown = true;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Method next.
+     *
+     * @param changes Changes, unknown once the watcher is closed
+     * @return the next key with events, or null if there is none
+     */
+    private WatchKey next(Changes changes) {
+        try {
+            return service.poll();
+        } catch (ClosedWatchServiceException e) {
+            changes.unknown = true;
+            return null;
+        }
+    }
+
+    /**
+     * Stop watching, and let go of what the file system keeps for the
+     * directories watched.
+     */
+    public synchronized void close() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+        dirs.clear();
+        watched.clear();
+    }
+
+    /**
+     * The changes seen between two polls.
+     */
+    public static class Changes {
+        /**
+         * Field unknown.
+         */
+        private boolean unknown = false;
+
+        /**
+         * Field listed.
+         */
+        private boolean listed = false;
+
+        /**
+         * Field modified.
+         */
+        private final Set<File> modified = new HashSet<File>();
+
+        /**
+         * Method isUnknown.
+         *
+         * @return true if events were lost, so that any file may have
+         *         changed
+         */
+        public boolean isUnknown() {
+            return unknown;
+        }
+
+        /**
+         * Method isListingChanged.
+         *
+         * @return true if files were created or deleted
+         */
+        public boolean isListingChanged() {
+            return listed;
+        }
+
+        /**
+         * Method getModified.
+         *
+         * @return the files modified, created or deleted
+         */
+        public Set<File> getModified() {
+            return modified;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.util.DOMElementWriter;
+import org.apache.tools.ant.util.FileUtils;
+import org.apache.tools.ant.util.StringUtils;
+
+/**
+ * Records how long each iteration of a loop waited and ran, and how
+ * it ended, and sums it up when the loop is over.
+ * <p>The summary can be published as properties and written to a
+ * report, in CSV if the name of the report file ends in
+ * <code>.csv</code> and in XML otherwise. All times are in
+ * milliseconds.</p>
+ */
+public class IterationMetrics {
+    /**
+     * Field OK.
+     */
+    public static final String OK = "ok";
+
+    /**
+     * Field FAILED.
+     */
+    public static final String FAILED = "failed";
+
+    /**
+     * Field NANOS_PER_MILLI.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /**
+     * Field samples.
+     */
+    private final List<Sample> samples = new ArrayList<Sample>();
+
+    /**
+     * Field started.
+     */
+    private final long started = System.nanoTime();
+
+    /**
+     * Field finished.
+     */
+    private long finished = 0;
+
+    /**
+     * Field running.
+     */
+    private int running = 0;
+
+    /**
+     * Field peak.
+     * The largest number of iterations that ran at once.
+     */
+    private int peak = 0;
+
+    /**
+     * Called when an iteration starts running.
+     *
+     * @return the start time, to pass to {@link #end}
+     */
+    public synchronized long begin() {
+        if (++running > peak) {
+            peak = running;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when an iteration has finished.
+     *
+     * @param value   the value of the iteration
+     * @param queued  the time the iteration was queued, as given by
+     *                System.nanoTime()
+     * @param start   the time returned by {@link #begin()}
+     * @param outcome how the iteration ended
+     */
+    public synchronized void end(String value, long queued, long start,
+                                 String outcome) {
+        long now = System.nanoTime();
+        running--;
+        samples.add(new Sample(value, start - queued, now - start, outcome));
+    }
+
+    /**
+     * Mark the end of the loop.
+     */
+    public synchronized void finish() {
+        finished = System.nanoTime();
+    }
+
+    /**
+     * Set the summary as properties named after the prefix:
+     * <code>count</code>, <code>failed</code>, <code>min</code>,
+     * <code>max</code>, <code>mean</code>, <code>p50</code>,
+     * <code>p95</code>, <code>p99</code>, <code>wait.mean</code>,
+     * <code>wait.max</code>, <code>elapsed</code>,
+     * <code>utilization</code> (the percentage of the time the peak
+     * number of workers were busy) and <code>slowest</code> (a
+     * comma separated list of value=time).
+     *
+     * @param project the project to set the properties in
+     * @param prefix  the prefix of the property names
+     * @param slowest the number of slowest iterations to list
+     */
+    public synchronized void publish(Project project, String prefix,
+                                     int slowest) {
+        Summary s = new Summary(slowest);
+        String p = prefix.endsWith(".") ? prefix : prefix + ".";
+        project.setNewProperty(p + "count", String.valueOf(samples.size()));
+        project.setNewProperty(p + "failed", String.valueOf(s.failed));
+        project.setNewProperty(p + "min", millis(s.min));
+        project.setNewProperty(p + "max", millis(s.max));
+        project.setNewProperty(p + "mean", millis(s.mean));
+        project.setNewProperty(p + "p50", millis(s.p50));
+        project.setNewProperty(p + "p95", millis(s.p95));
+        project.setNewProperty(p + "p99", millis(s.p99));
+        project.setNewProperty(p + "wait.mean", millis(s.waitMean));
+        project.setNewProperty(p + "wait.max", millis(s.waitMax));
+        project.setNewProperty(p + "elapsed", millis(s.elapsed));
+        project.setNewProperty(p + "utilization", String.valueOf(s.utilization));
+        StringBuilder list = new StringBuilder();
+        for (Sample sample : s.slowest) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(sample.value).append('=').append(millis(sample.run));
+        }
+        project.setNewProperty(p + "slowest", list.toString());
+    }
+
+    /**
+     * Write a report of the iterations.
+     *
+     * @param file    the report file, a CSV file if its name ends in
+     *                <code>.csv</code> and an XML file otherwise
+     * @param slowest the number of slowest iterations to list in an
+     *                XML report
+     */
+    public synchronized void writeReport(File file, int slowest) {
+        Writer w = null;
+        try {
+            w = new BufferedWriter(new FileWriter(file));
+            if (file.getName().toLowerCase().endsWith(".csv")) {
+                writeCsv(w);
+            } else {
+                writeXml(w, new Summary(slowest));
+            }
+        } catch (IOException ex) {
+            throw new BuildException("Unable to write " + file, ex);
+        } finally {
+            FileUtils.close(w);
+        }
+    }
+
+    /**
+     * One line per iteration, in the order they finished.
+     *
+     * @param w Writer
+     * @throws IOException if the report cannot be written
+     */
+    private void writeCsv(Writer w) throws IOException {
+        w.write("value,outcome,wait,time");
+        w.write(StringUtils.LINE_SEP);
+        for (Sample s : samples) {
+            String value = s.value;
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0) {
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            }
+            w.write(value + "," + s.outcome + "," + millis(s.wait) + ","
+                    + millis(s.run));
+            w.write(StringUtils.LINE_SEP);
+        }
+    }
+
+    /**
+     * The summary, and the slowest iterations.
+     *
+     * @param w Writer
+     * @param s Summary
+     * @throws IOException if the report cannot be written
+     */
+    private void writeXml(Writer w, Summary s) throws IOException {
+        String nl = StringUtils.LINE_SEP;
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + nl);
+        w.write("<iterations count=\"" + samples.size()
+                + "\" failed=\"" + s.failed
+                + "\" elapsed=\"" + millis(s.elapsed)
+                + "\" peakworkers=\"" + peak
+                + "\" utilization=\"" + s.utilization + "\">" + nl);
+        w.write("  <time min=\"" + millis(s.min)
+                + "\" max=\"" + millis(s.max)
+                + "\" mean=\"" + millis(s.mean)
+                + "\" p50=\"" + millis(s.p50)
+                + "\" p95=\"" + millis(s.p95)
+                + "\" p99=\"" + millis(s.p99) + "\"/>" + nl);
+        w.write("  <wait mean=\"" + millis(s.waitMean)
+                + "\" max=\"" + millis(s.waitMax) + "\"/>" + nl);
+        w.write("  <slowest>" + nl);
+        DOMElementWriter xml = new DOMElementWriter();
+        for (Sample sample : s.slowest) {
+            w.write("    <iteration value=\"" + xml.encodeAttributeValue(sample.value)
+                    + "\" outcome=\"" + sample.outcome
+                    + "\" wait=\"" + millis(sample.wait)
+                    + "\" time=\"" + millis(sample.run) + "\"/>" + nl);
+        }
+        w.write("  </slowest>" + nl);
+        w.write("</iterations>" + nl);
+    }
+
+    /**
+     * Method millis.
+     *
+     * @param nanos long
+     * @return the time in milliseconds, with three decimals
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+    /**
+     * The figures of one iteration.
+     */
+    private static class Sample {
+        /**
+         * Field value.
+         */
+        private final String value;
+
+        /**
+         * Field wait.
+         */
+        private final long wait;
+
+        /**
+         * Field run.
+         */
+        private final long run;
+
+        /**
+         * Field outcome.
+         */
+        private final String outcome;
+
+        /**
+         * Constructor for Sample.
+         *
+         * @param value   String
+         * @param wait    long
+         * @param run     long
+         * @param outcome String
+         */
+        Sample(String value, long wait, long run, String outcome) {
+            this.value = value;
+            this.wait = wait;
+            this.run = run;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * The figures of all the iterations.
+     */
+    private class Summary {
+        /**
+         * Field min.
+         */
+        private long min;
+
+        /**
+         * Field max.
+         */
+        private long max;
+
+        /**
+         * Field mean.
+         */
+        private long mean;
+
+        /**
+         * Field p50.
+         */
+        private long p50;
+
+        /**
+         * Field p95.
+         */
+        private long p95;
+
+        /**
+         * Field p99.
+         */
+        private long p99;
+
+        /**
+         * Field waitMean.
+         */
+        private long waitMean;
+
+        /**
+         * Field waitMax.
+         */
+        private long waitMax;
+
+        /**
+         * Field elapsed.
+         */
+        private long elapsed;
+
+        /**
+         * Field utilization.
+         */
+        private int utilization;
+
+        /**
+         * Field failed.
+         */
+        private int failed;
+
+        /**
+         * Field slowest.
+         */
+        private List<Sample> slowest;
+
+        /**
+         * Constructor for Summary.
+         *
+         * @param top the number of slowest iterations to keep
+         */
+        Summary(int top) {
+            elapsed = (finished == 0 ? System.nanoTime() : finished) - started;
+            int n = samples.size();
+            long[] runs = new long[n];
+            long busy = 0;
+            long waited = 0;
+            for (int i = 0; i < n; i++) {
+                Sample s = samples.get(i);
+                runs[i] = s.run;
+                busy += s.run;
+                waited += s.wait;
+                waitMax = Math.max(waitMax, s.wait);
+                if (!OK.equals(s.outcome)) {
+                    failed++;
+                }
+            }
+            if (n > 0) {
+                Arrays.sort(runs);
+                min = runs[0];
+                max = runs[n - 1];
+                mean = busy / n;
+                waitMean = waited / n;
+                p50 = percentile(runs, 50);
+                p95 = percentile(runs, 95);
+                p99 = percentile(runs, 99);
+            }
+            if (elapsed > 0 && peak > 0) {
+                utilization = (int) Math.min(100, busy * 100 / (elapsed * peak));
+            }
+            List<Sample> sorted = new ArrayList<Sample>(samples);
+            Collections.sort(sorted, new Comparator<Sample>() {
+                public int compare(Sample a, Sample b) {
+                    return a.run < b.run ? 1 : (a.run > b.run ? -1 : 0);
+                }
+            });
+            slowest = sorted.subList(0, Math.min(top, n));
+        }
+
+        /**
+         * Nearest rank percentile.
+         *
+         * @param sorted the sorted times
+         * @param p      the percentile
+         * @return long
+         */
+        private long percentile(long[] sorted, int p) {
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps track of the iterations of a parallel loop so that the first
+ * failure can cancel the rest.
+ * <p>Each iteration calls {@link #begin()} before it does any work and
+ * {@link #end(boolean)} when it is done. After {@link #fail()} no
+ * iteration begins any more, and the iterations that are running are
+ * interrupted.</p>
+ */
+public class IterationTracker {
+    /**
+     * Field running.
+     * The threads running an iteration that can still be cancelled.
+     */
+    private final Set<Thread> running = new HashSet<Thread>();
+
+    /**
+     * Field stopped.
+     */
+    private boolean stopped = false;
+
+    /**
+     * Field completed.
+     */
+    private int completed = 0;
+
+    /**
+     * Field cancelled.
+     */
+    private int cancelled = 0;
+
+    /**
+     * Field notStarted.
+     */
+    private int notStarted = 0;
+
+    /**
+     * Field moreNotStarted.
+     * True if some iterations were dropped without being counted.
+     */
+    private boolean moreNotStarted = false;
+
+    /**
+     * Called by an iteration before it starts.
+     *
+     * @return false if the iteration must not start
+     */
+    public synchronized boolean begin() {
+        if (stopped) {
+            notStarted++;
+            return false;
+        }
+        running.add(Thread.currentThread());
+        return true;
+    }
+
+    /**
+     * Called by the loop for the iterations it drops once stopped,
+     * without handing them to {@link #begin()}.
+     *
+     * @param count the number of iterations dropped
+     * @param more  true if there may be more than that, such as when
+     *              the values left are not counted
+     */
+    public synchronized void skipped(int count, boolean more) {
+        notStarted += count;
+        moreNotStarted |= more;
+    }
+
+    /**
+     * Called by an iteration that has begun when it is done. Clears
+     * the interrupt of a cancelled iteration, so that it does not
+     * carry over to the next task the thread runs.
+     *
+     * @param ok true if the iteration succeeded
+     */
+    public synchronized void end(boolean ok) {
+        if (running.remove(Thread.currentThread()) && ok) {
+            completed++;
+        }
+        Thread.interrupted();
+    }
+
+    /**
+     * Called by the iteration that failed. The first call stops the
+     * loop and interrupts the other running iterations.
+     *
+     * @return true if this is the first failure
+     */
+    public synchronized boolean fail() {
+        if (!running.remove(Thread.currentThread()) || stopped) {
+            // cancelled already, most likely failing because of it
+            return false;
+        }
+        cancel();
+        return true;
+    }
+
+    /**
+     * Stop the loop and interrupt the running iterations.
+     */
+    public synchronized void cancel() {
+        stopped = true;
+        for (Thread t : running) {
+            t.interrupt();
+        }
+        cancelled += running.size();
+        running.clear();
+    }
+
+    /**
+     * Method isStopped.
+     *
+     * @return true once the loop has been stopped
+     */
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Method getCompleted.
+     *
+     * @return the number of iterations that succeeded
+     */
+    public synchronized int getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Method getCancelled.
+     *
+     * @return the number of iterations interrupted while running
+     */
+    public synchronized int getCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method getNotStarted.
+     *
+     * @return the number of iterations dropped before they started, or
+     *         the least number of them if the loop did not count them
+     *         all
+     */
+    public synchronized int getNotStarted() {
+        return notStarted;
+    }
+
+    /**
+     * Method toString.
+     *
+     * @return String
+     */
+    public synchronized String toString() {
+        return completed + " completed, " + cancelled + " cancelled, "
+                + (moreNotStarted ? "at least " : "") + notStarted + " never started";
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+
+/**
+ * Keeps the log output of parallel iterations in iteration order.
+ * <p>Each iteration gets a {@link Slot}, in the order the iterations
+ * are dispatched. While an iteration runs, the build events fired on
+ * its thread go to its slot instead of to the build listeners. The
+ * events of the first unfinished iteration are passed on straight
+ * away; those of the iterations after it are held back until every
+ * iteration before them has finished. Loops nested in an iteration
+ * pass their output on to the slot of that iteration.</p>
+ * <p>The events are diverted by a listener that, for the duration of
+ * the loop, stands in for the listeners of the project, which get back
+ * their places in the project once the loop is done. Sub-projects
+ * started meanwhile only have that listener; the events they fire
+ * outside any iteration, even once the loop is done, are passed on to
+ * the listeners of the project straight away. The events are
+ * passed on in order by one thread at a time, without holding any lock,
+ * so that a slow listener, or one that logs, does not hold up the
+ * iterations firing events.</p>
+ */
+public class OrderedOutput {
+    /**
+     * Field demux.
+     */
+    private final Demux demux;
+
+    /**
+     * Field parent.
+     * The slot the output goes to, null for the build listeners.
+     */
+    private final Slot parent;
+
+    /**
+     * Field slots.
+     * The slots whose output has not been passed on completely.
+     */
+    private final LinkedList<Slot> slots = new LinkedList<Slot>();
+
+    /**
+     * Field outbox.
+     * The events to pass on, in order.
+     */
+    private final LinkedList<Event> outbox = new LinkedList<Event>();
+
+    /**
+     * Field delivering.
+     * True while a thread is passing on the events of the outbox.
+     */
+    private boolean delivering = false;
+
+    /**
+     * Constructor for OrderedOutput. Must be called on the thread
+     * running the loop, and be followed by {@link #close()}.
+     *
+     * @param project the project of the loop
+     */
+    public OrderedOutput(Project project) {
+        this.demux = Demux.install(project);
+        this.parent = demux.current.get();
+    }
+
+    /**
+     * Create the slot for the next iteration.
+     *
+     * @return Slot
+     */
+    public synchronized Slot newSlot() {
+        Slot slot = new Slot();
+        slots.addLast(slot);
+        return slot;
+    }
+
+    /**
+     * Stop diverting the output of the project. Any output still held
+     * back is passed on.
+     */
+    public void close() {
+        synchronized (this) {
+            while (!slots.isEmpty()) {
+                slots.getFirst().done = true;
+                flush();
+            }
+        }
+        deliverPending();
+        synchronized (this) {
+            // another thread may still be passing on the last events
+            while (delivering) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        Demux.uninstall(demux);
+    }
+
+    /**
+     * Move the output of the finished slots at the head of the queue,
+     * and of the first unfinished one, to the outbox.
+     */
+    private synchronized void flush() {
+        while (!slots.isEmpty()) {
+            Slot head = slots.getFirst();
+            outbox.addAll(head.events);
+            head.events.clear();
+            if (!head.done) {
+                return;
+            }
+            slots.removeFirst();
+        }
+    }
+
+    /**
+     * Method add.
+     *
+     * @param slot  the slot the event was fired in
+     * @param event the event
+     */
+    private void add(Slot slot, Event event) {
+        synchronized (this) {
+            if (!slots.isEmpty() && slots.getFirst() == slot) {
+                outbox.addLast(event);
+            } else {
+                slot.events.add(event);
+                return;
+            }
+        }
+        deliverPending();
+    }
+
+    /**
+     * Pass on the events of the outbox, unless another thread is
+     * already doing it, in which case it passes them on as well.
+     */
+    private void deliverPending() {
+        synchronized (this) {
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+        }
+        boolean done = false;
+        try {
+            while (!done) {
+                Event e;
+                synchronized (this) {
+                    e = outbox.poll();
+                    if (e == null) {
+                        delivering = false;
+                        done = true;
+                        notifyAll();
+                        break;
+                    }
+                }
+                deliver(e);
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    delivering = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method deliver.
+     *
+     * @param event Event
+     */
+    private void deliver(Event event) {
+        if (parent != null) {
+            parent.fire(event);
+        } else {
+            demux.forward(event);
+        }
+    }
+
+    /**
+     * The output of one iteration.
+     */
+    public final class Slot {
+        /**
+         * Field events.
+         */
+        private final List<Event> events = new ArrayList<Event>();
+
+        /**
+         * Field done.
+         */
+        private boolean done = false;
+
+        /**
+         * Field previous.
+         */
+        private Slot previous;
+
+        /**
+         * Method Slot.
+         */
+        private Slot() {
+        }
+
+        /**
+         * Start collecting the events of the current thread. Must be
+         * followed by {@link #end()} on the same thread.
+         */
+        public void begin() {
+            previous = demux.current.get();
+            demux.current.set(this);
+        }
+
+        /**
+         * Stop collecting the events of the current thread, and mark
+         * the iteration as finished.
+         */
+        public void end() {
+            demux.current.set(previous);
+            previous = null;
+            synchronized (OrderedOutput.this) {
+                done = true;
+                flush();
+            }
+            deliverPending();
+        }
+
+        /**
+         * Method fire.
+         *
+         * @param event Event
+         */
+        private void fire(Event event) {
+            add(this, event);
+        }
+    }
+
+    /**
+     * A build event together with the listener method it is for.
+     */
+    private static class Event {
+        /**
+         * Field BUILD_STARTED.
+         */
+        static final int BUILD_STARTED = 0;
+
+        /**
+         * Field BUILD_FINISHED.
+         */
+        static final int BUILD_FINISHED = 1;
+
+        /**
+         * Field TARGET_STARTED.
+         */
+        static final int TARGET_STARTED = 2;
+
+        /**
+         * Field TARGET_FINISHED.
+         */
+        static final int TARGET_FINISHED = 3;
+
+        /**
+         * Field TASK_STARTED.
+         */
+        static final int TASK_STARTED = 4;
+
+        /**
+         * Field TASK_FINISHED.
+         */
+        static final int TASK_FINISHED = 5;
+
+        /**
+         * Field MESSAGE_LOGGED.
+         */
+        static final int MESSAGE_LOGGED = 6;
+
+        /**
+         * Field SUB_BUILD_STARTED.
+         */
+        static final int SUB_BUILD_STARTED = 7;
+
+        /**
+         * Field SUB_BUILD_FINISHED.
+         */
+        static final int SUB_BUILD_FINISHED = 8;
+
+        /**
+         * Field type.
+         */
+        private final int type;
+
+        /**
+         * Field event.
+         */
+        private final BuildEvent event;
+
+        /**
+         * Constructor for Event.
+         *
+         * @param type  int
+         * @param event BuildEvent
+         */
+        Event(int type, BuildEvent event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        /**
+         * Send the event to a listener.
+         *
+         * @param l BuildListener
+         */
+        void send(BuildListener l) {
+            switch (type) {
+                case BUILD_STARTED:
+                    l.buildStarted(event);
+                    break;
+                case BUILD_FINISHED:
+                    l.buildFinished(event);
+                    break;
+                case TARGET_STARTED:
+                    l.targetStarted(event);
+                    break;
+                case TARGET_FINISHED:
+                    l.targetFinished(event);
+                    break;
+                case TASK_STARTED:
+                    l.taskStarted(event);
+                    break;
+                case TASK_FINISHED:
+                    l.taskFinished(event);
+                    break;
+                case MESSAGE_LOGGED:
+                    l.messageLogged(event);
+                    break;
+                case SUB_BUILD_STARTED:
+                    if (l instanceof SubBuildListener) {
+                        ((SubBuildListener) l).subBuildStarted(event);
+                    }
+                    break;
+                case SUB_BUILD_FINISHED:
+                    if (l instanceof SubBuildListener) {
+                        ((SubBuildListener) l).subBuildFinished(event);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The listener standing in for the listeners of a project. It is
+     * shared by all the ordered loops of the project that run at the
+     * same time.
+     */
+    private static class Demux implements SubBuildListener {
+        /**
+         * Field current.
+         * The slot collecting the events of each thread.
+         */
+        private final ThreadLocal<Slot> current = new ThreadLocal<Slot>();
+
+        /**
+         * Field project.
+         * The project this stands in the listeners of. Sub-projects
+         * started by an iteration inherit it with the listeners.
+         */
+        private final Project project;
+
+        /**
+         * Field listeners.
+         * The listeners of the project this stands in for, in the order
+         * the project had them.
+         */
+        private final List<BuildListener> listeners =
+                new CopyOnWriteArrayList<BuildListener>();
+
+        /**
+         * Field users.
+         */
+        private int users = 0;
+
+        /**
+         * Field installed.
+         * False once the listeners are given back to the project.
+         */
+        private volatile boolean installed = true;
+
+        /**
+         * Constructor for Demux.
+         *
+         * @param project Project
+         */
+        Demux(Project project) {
+            this.project = project;
+        }
+
+        /**
+         * Method install.
+         *
+         * @param project Project
+         * @return the Demux of the project
+         */
+        static synchronized Demux install(Project project) {
+            List<BuildListener> listeners = project.getBuildListeners();
+            Demux demux = null;
+            for (BuildListener l : listeners) {
+                if (l instanceof Demux) {
+                    demux = (Demux) l;
+                }
+            }
+            if (demux == null) {
+                demux = new Demux(project);
+                project.addBuildListener(demux);
+                // each listener is taken over as it is removed, so that
+                // it gets every event once meanwhile
+                for (BuildListener l : listeners) {
+                    project.removeBuildListener(l);
+                    demux.listeners.add(l);
+                }
+            }
+            demux.users++;
+            return demux;
+        }
+
+        /**
+         * Method uninstall.
+         * Gives the listeners back to the project in the order it had
+         * them, followed by the listeners added to the project since.
+         *
+         * @param demux Demux
+         */
+        static synchronized void uninstall(Demux demux) {
+            if (--demux.users > 0) {
+                return;
+            }
+            Project project = demux.project;
+            List<BuildListener> added = new ArrayList<BuildListener>();
+            for (BuildListener l : project.getBuildListeners()) {
+                if (l != demux) {
+                    added.add(l);
+                }
+            }
+            for (BuildListener l : demux.listeners) {
+                project.addBuildListener(l);
+            }
+            // sub-projects may still have this in their listeners; the
+            // list is left as it is for the events being passed on now
+            demux.installed = false;
+            project.removeBuildListener(demux);
+            for (BuildListener l : added) {
+                project.removeBuildListener(l);
+                project.addBuildListener(l);
+            }
+        }
+
+        /**
+         * Method forward.
+         *
+         * @param event Event
+         */
+        void forward(Event event) {
+            if (!installed) {
+                for (BuildListener l : project.getBuildListeners()) {
+                    if (l != this) {
+                        event.send(l);
+                    }
+                }
+                return;
+            }
+            for (BuildListener l : listeners) {
+                event.send(l);
+            }
+        }
+
+        /**
+         * Method dispatch.
+         *
+         * @param type  int
+         * @param event BuildEvent
+         */
+        private void dispatch(int type, BuildEvent event) {
+            Event e = new Event(type, event);
+            Slot slot = current.get();
+            if (slot != null) {
+                slot.fire(e);
+            } else {
+                forward(e);
+            }
+        }
+
+        /**
+         * Method buildStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void buildStarted(BuildEvent event) {
+            dispatch(Event.BUILD_STARTED, event);
+        }
+
+        /**
+         * Method buildFinished.
+         *
+         * @param event BuildEvent
+         */
+        public void buildFinished(BuildEvent event) {
+            dispatch(Event.BUILD_FINISHED, event);
+        }
+
+        /**
+         * Method targetStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void targetStarted(BuildEvent event) {
+            dispatch(Event.TARGET_STARTED, event);
+        }
+
+        /**
+         * Method targetFinished.
+         *
+         * @param event BuildEvent
+         */
+        public void targetFinished(BuildEvent event) {
+            dispatch(Event.TARGET_FINISHED, event);
+        }
+
+        /**
+         * Method taskStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void taskStarted(BuildEvent event) {
+            dispatch(Event.TASK_STARTED, event);
+        }
+
+        /**
+         * Method taskFinished.
+         *
+         * @param event BuildEvent
+         */
+        public void taskFinished(BuildEvent event) {
+            dispatch(Event.TASK_FINISHED, event);
+        }
+
+        /**
+         * Method messageLogged.
+         *
+         * @param event BuildEvent
+         */
+        public void messageLogged(BuildEvent event) {
+            dispatch(Event.MESSAGE_LOGGED, event);
+        }
+
+        /**
+         * Method subBuildStarted.
+         *
+         * @param event BuildEvent
+         */
+        public void subBuildStarted(BuildEvent event) {
+            dispatch(Event.SUB_BUILD_STARTED, event);
+        }
+
+        /**
+         * Method subBuildFinished.
+         *
+         * @param event BuildEvent
+         */
+        public void subBuildFinished(BuildEvent event) {
+            dispatch(Event.SUB_BUILD_FINISHED, event);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.PropertyHelper;
+
+/**
+ * Keeps the original value of every property set in a project, so
+ * that the project can be put back the way it was.
+ * <p>Only the properties that are actually set are remembered, the
+ * first time they are set, so rolling back costs as much as what
+ * changed and not as much as the number of properties there are.
+ * User and inherited properties are not tracked.</p>
+ */
+public class PropertyRollback implements PropertyHelper.PropertySetter {
+    /**
+     * Field UNSET.
+     * Stands in for the value of a property that did not exist.
+     */
+    private static final Object UNSET = new Object();
+
+    /**
+     * Field properties.
+     */
+    private final Hashtable<String, Object> properties;
+
+    /**
+     * Field saved.
+     */
+    private final Map<String, Object> saved = new LinkedHashMap<String, Object>();
+
+    /**
+     * Constructor for PropertyRollback.
+     * Starts tracking the properties set in the project.
+     *
+     * @param project Project
+     */
+    public PropertyRollback(Project project) {
+        PropertyHelper helper = PropertyHelper.getPropertyHelper(project);
+        properties = internalProperties(helper);
+        helper.add(this);
+    }
+
+    /**
+     * Method setNew.
+     *
+     * @param property       String
+     * @param value          Object
+     * @param propertyHelper PropertyHelper
+     * @return false, the property is set as usual
+     */
+    public boolean setNew(String property, Object value,
+                          PropertyHelper propertyHelper) {
+        save(property);
+        return false;
+    }
+
+    /**
+     * Method set.
+     *
+     * @param property       String
+     * @param value          Object
+     * @param propertyHelper PropertyHelper
+     * @return false, the property is set as usual
+     */
+    public boolean set(String property, Object value,
+                       PropertyHelper propertyHelper) {
+        save(property);
+        return false;
+    }
+
+    /**
+     * Put back the values the properties set since the last rollback
+     * had before, removing those that did not exist.
+     */
+    public synchronized void rollback() {
+        for (Map.Entry<String, Object> e : saved.entrySet()) {
+            if (e.getValue() == UNSET) {
+                properties.remove(e.getKey());
+            } else {
+                properties.put(e.getKey(), e.getValue());
+            }
+        }
+        saved.clear();
+    }
+
+    /**
+     * Method save.
+     *
+     * @param property String
+     */
+    private synchronized void save(String property) {
+        if (!saved.containsKey(property)) {
+            Object value = properties.get(property);
+            saved.put(property, value == null ? UNSET : value);
+        }
+    }
+
+    /**
+     * Get at the table a PropertyHelper keeps its properties in.
+     *
+     * @param helper PropertyHelper
+     * @return Hashtable&lt;String, Object&gt;
+     */
+    @SuppressWarnings("unchecked")
+    private static Hashtable<String, Object> internalProperties(PropertyHelper helper) {
+        try {
+            Method m = PropertyHelper.class.getDeclaredMethod("getInternalProperties");
+            m.setAccessible(true);
+            return (Hashtable<String, Object>) m.invoke(helper);
+        } catch (Exception e) {
+            throw new BuildException("Cannot track the properties of a project", e);
+        }
+    }
+}
@@ -15,10 +15,34 @@
  */
 package net.sf.antcontrib.util;
 
+import java.util.Collection;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * A pool of at most <code>maxActive</code> reusable worker threads.
+ * <p>The workers are started as work arrives and stop after a minute
+ * without any. A <code>maxActive</code> of 0 or less means there is
+ * no limit.</p>
+ *
  * @author <a href="mailto:mattinger@yahoo.com">Matthew Inger</a>
  */
 public class ThreadPool {
+    /**
+     * Field KEEP_ALIVE.
+     * Seconds an idle worker waits for work before it stops.
+     */
+    private static final long KEEP_ALIVE = 60L;
+
     /**
      * Field maxActive.
      */
@@ -29,22 +53,197 @@ public class ThreadPool {
      */
     private int active;
 
+    /**
+     * Field threadFactory.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Field executor.
+     */
+    private ThreadPoolExecutor executor;
+
     /**
      * Constructor for ThreadPool.
      *
      * @param maxActive int
      */
     public ThreadPool(int maxActive) {
+        this(maxActive, null);
+    }
+
+    /**
+     * Constructor for ThreadPool.
+     *
+     * @param maxActive     int
+     * @param threadFactory ThreadFactory, null for the default factory
+     */
+    public ThreadPool(int maxActive, ThreadFactory threadFactory) {
         super();
         this.maxActive = maxActive;
         this.active = 0;
+        this.threadFactory = threadFactory != null ? threadFactory
+                : Executors.defaultThreadFactory();
+    }
+
+    /**
+     * Get a factory for virtual threads, which the JVM schedules onto
+     * a handful of carrier threads, so that tasks which mostly wait can
+     * run by the thousand.
+     *
+     * @return a ThreadFactory making virtual threads, or null if the
+     *         running JVM has none
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            // before Java 21, or preview features not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Method getMaxActive.
+     *
+     * @return the maximum number of workers, 0 or less for no limit
+     */
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    /**
+     * Method getExecutor.
+     * The executor is created the first time it is needed.
+     *
+     * @return the executor running work on the workers of this pool
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            if (maxActive > 0) {
+                executor = new ThreadPoolExecutor(maxActive, maxActive,
+                        KEEP_ALIVE, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), threadFactory);
+                executor.allowCoreThreadTimeOut(true);
+            } else {
+                executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                        KEEP_ALIVE, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), threadFactory);
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Run a task on a worker of the pool.
+     *
+     * @param task Runnable
+     * @return a Future completing with the task
+     */
+    public Future<?> submit(Runnable task) {
+        return getExecutor().submit(task);
+    }
+
+    /**
+     * Run every task on the pool and wait for them to finish.
+     *
+     * @param tasks the tasks to run
+     * @throws ExecutionException   wrapping the first failure
+     * @throws InterruptedException if interrupted while waiting
+     * @see #invokeAll(Collection, IterationTracker)
+     */
+    public void invokeAll(Collection<? extends Runnable> tasks)
+            throws ExecutionException, InterruptedException {
+        invokeAll(tasks, new IterationTracker());
+    }
+
+    /**
+     * Run every task on the pool and wait for them to finish.
+     * <p>The first task to fail stops the others: the tasks that have
+     * not started yet are dropped and the running ones are interrupted.
+     * The failure is thrown as soon as they have all returned; the
+     * tracker tells how many tasks completed, were cancelled or never
+     * started.</p>
+     *
+     * @param tasks   the tasks to run
+     * @param tracker the tracker for the tasks
+     * @throws ExecutionException   wrapping the first failure
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void invokeAll(Collection<? extends Runnable> tasks,
+                          final IterationTracker tracker)
+            throws ExecutionException, InterruptedException {
+        CompletionService<Object> completion =
+                new ExecutorCompletionService<Object>(getExecutor());
+        int submitted = 0;
+        ExecutionException failure = null;
+        try {
+            for (final Runnable task : tasks) {
+                if (tracker.isStopped()) {
+                    break;
+                }
+                completion.submit(new Runnable() {
+                    public void run() {
+                        if (!tracker.begin()) {
+                            return;
+                        }
+                        boolean ok = false;
+                        try {
+                            task.run();
+                            ok = true;
+                        } catch (RuntimeException ex) {
+                            if (tracker.fail()) {
+                                throw ex;
+                            }
+                        } catch (Error err) {
+                            if (tracker.fail()) {
+                                throw err;
+                            }
+                        } finally {
+                            tracker.end(ok);
+                        }
+                    }
+                }, null);
+                submitted++;
+            }
+            tracker.skipped(tasks.size() - submitted, false);
+            // only the first failure is thrown by its task, and it is
+            // taken as soon as it happens
+            for (int i = 0; i < submitted; i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException ex) {
+                    failure = ex;
+                }
+            }
+        } catch (InterruptedException ex) {
+            tracker.cancel();
+            throw ex;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stop the workers once the work already submitted is done.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
     }
 
     /**
      * Method returnThread.
      *
      * @param thread ThreadPoolThread
+     * @deprecated Use submit or invokeAll instead.
      */
+    @Deprecated
     public void returnThread(ThreadPoolThread thread) {
         synchronized (this) {
             active--;
@@ -57,10 +256,13 @@ public class ThreadPool {
      *
      * @return ThreadPoolThread
      * @throws InterruptedException if a thread is interrupted
+     * @deprecated Use submit or invokeAll instead, which reuse
+     *             their threads.
      */
+    @Deprecated
     public ThreadPoolThread borrowThread() throws InterruptedException {
         synchronized (this) {
-            if (maxActive > 0 && active >= maxActive) {
+            while (maxActive > 0 && active >= maxActive) {
                 wait();
             }
 
@@ -17,7 +17,10 @@ package net.sf.antcontrib.util;
 
 /**
  * @author <a href="mailto:mattinger@yahoo.com">Matthew Inger</a>
+ * @deprecated Use {@link ThreadPool#submit(Runnable)}, which reuses
+ *             the threads of the pool.
  */
+@Deprecated
 public class ThreadPoolThread extends Thread {
     /**
      * Field pool.
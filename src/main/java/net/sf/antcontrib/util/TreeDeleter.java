@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Deletes files and directory trees on several threads at once.
+ * <p>Each file or directory given is deleted by one worker, walking
+ * directories with {@link Files#walkFileTree}. Symbolic links are
+ * deleted, not followed. A file that cannot be deleted does not stop
+ * the others; the failures are collected, along with the number of
+ * files, directories and bytes deleted.</p>
+ */
+public class TreeDeleter {
+    /**
+     * Field task.
+     */
+    private final Task task;
+
+    /**
+     * Field logLevel.
+     */
+    private final int logLevel;
+
+    /**
+     * Field files.
+     */
+    private final AtomicInteger files = new AtomicInteger();
+
+    /**
+     * Field directories.
+     */
+    private final AtomicInteger directories = new AtomicInteger();
+
+    /**
+     * Field bytes.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Field failures.
+     */
+    private final List<String> failures =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Constructor for TreeDeleter.
+     *
+     * @param task     the task to log for
+     * @param logLevel the level to log each deletion at
+     */
+    public TreeDeleter(Task task, int logLevel) {
+        this.task = task;
+        this.logLevel = logLevel;
+    }
+
+    /**
+     * Delete files and directories, with their contents.
+     *
+     * @param targets the files and directories to delete; those that
+     *                do not exist are skipped
+     * @param threads the most to delete at once
+     */
+    public void delete(List<File> targets, int threads) {
+        List<Runnable> tasks = new ArrayList<Runnable>(targets.size());
+        for (final File target : targets) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    delete(target.toPath());
+                }
+            });
+        }
+        ThreadPool pool = new ThreadPool(threads);
+        try {
+            pool.invokeAll(tasks);
+        } catch (ExecutionException e) {
+            throw new BuildException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new BuildException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Method getFiles.
+     *
+     * @return the number of files deleted
+     */
+    public int getFiles() {
+        return files.get();
+    }
+
+    /**
+     * Method getDirectories.
+     *
+     * @return the number of directories deleted
+     */
+    public int getDirectories() {
+        return directories.get();
+    }
+
+    /**
+     * Method getBytes.
+     *
+     * @return the size of the files deleted
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Method getFailures.
+     *
+     * @return the files and directories that could not be deleted,
+     *         with the reason
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Method delete.
+     *
+     * @param target Path
+     */
+    private void delete(Path target) {
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    task.log("Deleting " + file, logLevel);
+                    if (remove(file)) {
+                        files.incrementAndGet();
+                        bytes.addAndGet(attrs.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    failures.add(file + ": " + exc);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    if (exc != null) {
+                        failures.add(dir + ": " + exc);
+                    }
+                    task.log("Deleting directory " + dir, logLevel);
+                    if (remove(dir)) {
+                        directories.incrementAndGet();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            failures.add(target + ": " + e);
+        }
+    }
+
+    /**
+     * Method remove.
+     *
+     * @param path Path
+     * @return true if the file was deleted
+     */
+    private boolean remove(Path path) {
+        try {
+            Files.delete(path);
+            return true;
+        } catch (NoSuchFileException e) {
+            // deleted by someone else in the meantime
+            return false;
+        } catch (IOException e) {
+            failures.add(path + ": " + e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * A bounded queue of work for one invocation of a parallel task, run
+ * on a (possibly shared) executor.
+ * <p>At most <code>parallelism</code> tasks of the queue run at once,
+ * and at most <code>capacity</code> tasks wait to be run; submitting
+ * blocks while the queue is full. When the submitting thread is itself
+ * a worker of the executor it helps, running queued tasks itself
+ * instead of waiting for other workers, so nested loops sharing one
+ * pool cannot deadlock.</p>
+ * <p>The parallelism can be changed while the queue is in use; when
+ * it is lowered, running tasks are not interrupted but fewer are
+ * started until the number running is down to the new level.</p>
+ */
+public class WorkQueue {
+    /**
+     * Field executor.
+     */
+    private final Executor executor;
+
+    /**
+     * Field parallelism.
+     */
+    private int parallelism;
+
+    /**
+     * Field capacity.
+     */
+    private final int capacity;
+
+    /**
+     * Field callerHelps.
+     */
+    private final boolean callerHelps;
+
+    /**
+     * Field queue.
+     */
+    private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+
+    /**
+     * Field active.
+     * Number of drainers handed to the executor.
+     */
+    private int active = 0;
+
+    /**
+     * Field pending.
+     * Number of tasks queued or running.
+     */
+    private int pending = 0;
+
+    /**
+     * Field drainer.
+     */
+    private final Runnable drainer = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Constructor for WorkQueue.
+     *
+     * @param executor    the executor to run the tasks on
+     * @param parallelism the maximum number of tasks to run at once,
+     *                    0 or less for no limit
+     * @param capacity    the maximum number of tasks waiting to be run,
+     *                    0 or less for no limit
+     * @param callerHelps true if the submitting thread is a worker of
+     *                    the executor
+     */
+    public WorkQueue(Executor executor, int parallelism, int capacity,
+                     boolean callerHelps) {
+        this.executor = executor;
+        this.parallelism = parallelism > 0 ? parallelism : Integer.MAX_VALUE;
+        this.capacity = capacity;
+        this.callerHelps = callerHelps;
+    }
+
+    /**
+     * Method getParallelism.
+     *
+     * @return the maximum number of tasks to run at once
+     */
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Change the maximum number of tasks to run at once.
+     *
+     * @param parallelism the new maximum, 0 or less for no limit
+     */
+    public void setParallelism(int parallelism) {
+        int dispatch = 0;
+        synchronized (this) {
+            this.parallelism = parallelism > 0 ? parallelism : Integer.MAX_VALUE;
+            while (active + dispatch < this.parallelism && dispatch < queue.size()) {
+                dispatch++;
+            }
+            active += dispatch;
+        }
+        for (int i = 0; i < dispatch; i++) {
+            try {
+                executor.execute(drainer);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    active -= dispatch - i;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Queue a task, blocking while the queue is full.
+     *
+     * @param task Runnable
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        boolean dispatch = false;
+        for (;;) {
+            Runnable help = null;
+            synchronized (this) {
+                if (capacity <= 0 || queue.size() < capacity) {
+                    queue.addLast(task);
+                    pending++;
+                    if (active < parallelism) {
+                        active++;
+                        dispatch = true;
+                    }
+                    break;
+                }
+                if (callerHelps) {
+                    help = queue.removeFirst();
+                } else {
+                    wait();
+                }
+            }
+            if (help != null) {
+                runTask(help);
+            }
+        }
+        if (dispatch) {
+            try {
+                executor.execute(drainer);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    active--;
+                    if (queue.remove(task)) {
+                        pending--;
+                    }
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Wait until every submitted task has finished.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        for (;;) {
+            Runnable help = null;
+            synchronized (this) {
+                if (pending == 0) {
+                    return;
+                }
+                if (callerHelps && !queue.isEmpty()) {
+                    help = queue.removeFirst();
+                } else {
+                    wait();
+                }
+            }
+            if (help != null) {
+                runTask(help);
+            }
+        }
+    }
+
+    /**
+     * Run queued tasks until the queue is empty. If a task throws, the
+     * drainer hands over to a new one before going, so that the tasks
+     * still queued are run all the same.
+     */
+    private void drain() {
+        boolean finished = false;
+        try {
+            Runnable task = poll();
+            while (task != null) {
+                runTask(task);
+                task = poll();
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                replace();
+            }
+        }
+    }
+
+    /**
+     * Start a drainer in place of one that was stopped by a task
+     * throwing, if there are tasks left to run. If the executor will not
+     * take it, the tasks left are run on the calling thread.
+     */
+    private void replace() {
+        synchronized (this) {
+            notifyAll();
+            if (queue.isEmpty() || active > parallelism) {
+                active--;
+                return;
+            }
+        }
+        try {
+            executor.execute(drainer);
+        } catch (RuntimeException e) {
+            drain();
+        }
+    }
+
+    /**
+     * Take the next task off the queue. When the queue is empty, or
+     * there are more drainers than the parallelism allows, the calling
+     * drainer retires, in the same step, so that a task submitted
+     * concurrently always finds a drainer to run it.
+     *
+     * @return the next task, or null if the drainer should retire
+     */
+    private synchronized Runnable poll() {
+        if (queue.isEmpty() || active > parallelism) {
+            active--;
+            notifyAll();
+            return null;
+        }
+        notifyAll();
+        return queue.removeFirst();
+    }
+
+    /**
+     * Run a task that has been taken off the queue.
+     *
+     * @param task Runnable
+     */
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                pending--;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -20,8 +20,10 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
 
 /**
  * Since AntCallBack is basically a copy and paste of antcall, the only testing
@@ -97,6 +99,28 @@ public class AntCallBackTest {
         expectPropertySet("prop3", "prop3");
     }
 
+    /**
+     * A unit test for JUnit.
+     */
+    @Test
+    public void test6() {
+        buildRule.executeTarget("test6");
+        expectPropertySet("prop1", "parent");
+        expectPropertySet("prop2", "parent");
+        assertThat(buildRule.getLog(), containsString("parent.prop is parent"));
+    }
+
+    /**
+     * A unit test for JUnit.
+     */
+    @Test
+    public void test7() {
+        buildRule.executeTarget("test7");
+        expectPropertySet("first", "one");
+        expectPropertySet("second", "two");
+        assertThat(buildRule.getFullLog(), containsString("replaying buildfile"));
+    }
+
     private void expectPropertySet(String property, String value) {
         assertEquals("property " + property, value,
                 buildRule.getProject().getProperty(property));
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.logic;
+
+import org.apache.tools.ant.BuildFileRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testcase for AntFetch.
+ */
+public class AntFetchTest {
+    @Rule
+    public BuildFileRule buildRule = new BuildFileRule();
+
+    /**
+     * Method setUp.
+     */
+    @Before
+    public void setUp() {
+        buildRule.configureProject("src/test/resources/logic/antfetchtest.xml");
+    }
+
+    /**
+     * The called target sees the properties of the caller, and the
+     * property it sets is returned.
+     */
+    @Test
+    public void testInherit() {
+        buildRule.executeTarget("inherit");
+        assertEquals("seen:fromparent", buildRule.getProject().getProperty("child.out"));
+    }
+
+    /**
+     * Method testNoInherit.
+     */
+    @Test
+    public void testNoInherit() {
+        buildRule.executeTarget("noinherit");
+        assertEquals("seen:${parent.prop}", buildRule.getProject().getProperty("child.out"));
+    }
+
+    /**
+     * A property of the caller is not overridden by the one returned.
+     */
+    @Test
+    public void testKeep() {
+        buildRule.executeTarget("keep");
+        assertEquals("parent", buildRule.getProject().getProperty("child.out"));
+    }
+}
@@ -15,15 +15,27 @@
  */
 package net.sf.antcontrib.logic;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.BuildFileRule;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.DefaultLogger;
+import org.apache.tools.ant.Project;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
 import static org.hamcrest.CoreMatchers.both;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Testcase for &lt;for&gt;.
@@ -32,6 +44,9 @@ public class ForTest {
     @Rule
     public BuildFileRule buildRule = new BuildFileRule();
 
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
     /**
      * Method setUp.
      */
@@ -58,4 +73,183 @@ public class ForTest {
         assertThat(buildRule.getLog(), both(containsString("i is 10"))
                 .and(not(containsString("i is 3"))));
     }
+
+    /**
+     * Method testParallel.
+     */
+    @Test
+    public void testParallel() {
+        buildRule.executeTarget("parallel");
+        for (int i = 0; i <= 20; i++) {
+            assertThat(buildRule.getLog(), containsString("i is " + i));
+        }
+    }
+
+    /**
+     * Method testParallelKeepgoing.
+     */
+    @Test
+    public void testParallelKeepgoing() {
+        buildRule.getProject().setProperty("fail.b", "true");
+        thrown.expect(BuildException.class);
+        thrown.expectMessage("1 of 4 iterations failed");
+        buildRule.executeTarget("parallel-keepgoing");
+    }
+
+    /**
+     * Method testParallelFailFast.
+     * The failure must interrupt the slow iteration rather than wait
+     * for it, and drop the ones that have not started.
+     */
+    @Test
+    public void testParallelFailFast() {
+        buildRule.getProject().setProperty("slow.slow", "true");
+        buildRule.getProject().setProperty("fail.fail", "true");
+        thrown.expect(BuildException.class);
+        thrown.expectMessage("failed fail [parallel iterations: 0 completed,"
+                + " 1 cancelled, 3 never started]");
+        buildRule.executeTarget("parallel-failfast");
+    }
+
+    /**
+     * Method testParallelVirtual.
+     * Runs on virtual threads where the JVM has them.
+     */
+    @Test
+    public void testParallelVirtual() {
+        buildRule.executeTarget("parallel-virtual");
+        for (int i = 0; i <= 20; i++) {
+            assertThat(buildRule.getLog(), containsString("i is " + i));
+        }
+    }
+
+    /**
+     * Method testDistinctLimit.
+     */
+    @Test
+    public void testDistinctLimit() {
+        buildRule.executeTarget("distinct-limit");
+        assertEquals("x is ax is bx is ci is 0i is 1", buildRule.getLog());
+    }
+
+    /**
+     * Method testParallelAuto.
+     */
+    @Test
+    public void testParallelAuto() {
+        buildRule.executeTarget("parallel-auto");
+        assertThat(buildRule.getLog(), both(containsString("i is 0"))
+                .and(containsString("i is 40")));
+    }
+
+    /**
+     * Method testMetrics.
+     */
+    @Test
+    public void testMetrics() {
+        buildRule.executeTarget("metrics");
+        assertEquals("3", buildRule.getProject().getProperty("m.count"));
+        assertEquals("0", buildRule.getProject().getProperty("m.failed"));
+        assertThat(buildRule.getProject().getProperty("m.slowest"),
+                containsString("="));
+        assertThat(buildRule.getProject().getProperty("report"),
+                both(startsWith("value,outcome,wait,time"))
+                        .and(containsString("c,ok,")));
+    }
+
+    /**
+     * Method testOrderedOutput.
+     * The iterations finish in reverse order, but their output must
+     * not be interleaved.
+     */
+    @Test
+    public void testOrderedOutput() {
+        buildRule.executeTarget("orderedoutput");
+        assertEquals("start 400end 400start 300end 300"
+                + "start 200end 200start 100end 100", buildRule.getLog());
+    }
+
+    /**
+     * Method testOrderedOutputListeners.
+     * The listeners of the project must get back their places.
+     */
+    @Test
+    public void testOrderedOutputListeners() {
+        Project project = buildRule.getProject();
+        project.addBuildListener(new DefaultLogger());
+        List<BuildListener> before = project.getBuildListeners();
+        buildRule.executeTarget("orderedoutput");
+        // the class loaders of the taskdefs are added after them
+        assertEquals(before, project.getBuildListeners().subList(0, before.size()));
+    }
+
+    /**
+     * Method testOrderedOutputDaemon.
+     * A sub-project started by an iteration, and still running once the
+     * loop is done, must still have its output passed on.
+     */
+    @Test
+    public void testOrderedOutputDaemon() {
+        buildRule.executeTarget("orderedoutput-daemon");
+        assertThat(buildRule.getLog(), containsString("late message"));
+    }
+
+    /**
+     * Method testParallelDefault.
+     * Without a threadCount, the iterations running at once are still
+     * bounded, by four per processor.
+     */
+    @Test
+    public void testParallelDefault() {
+        final int bound = 4 * Runtime.getRuntime().availableProcessors();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger most = new AtomicInteger();
+        Project project = buildRule.getProject();
+        project.setProperty("for.end", String.valueOf(5 * bound));
+        project.addBuildListener(new DefaultLogger() {
+            public void taskStarted(BuildEvent event) {
+                if ("sleep".equals(event.getTask().getTaskName())) {
+                    int n = running.incrementAndGet();
+                    int m = most.get();
+                    while (n > m && !most.compareAndSet(m, n)) {
+                        m = most.get();
+                    }
+                }
+            }
+
+            public void taskFinished(BuildEvent event) {
+                if ("sleep".equals(event.getTask().getTaskName())) {
+                    running.decrementAndGet();
+                }
+            }
+        });
+        buildRule.executeTarget("parallel-default");
+        assertTrue(most.get() + " iterations ran at once", most.get() <= bound);
+        assertTrue(most.get() > 0);
+    }
+
+    /**
+     * Method testBatch.
+     */
+    @Test
+    public void testBatch() {
+        buildRule.executeTarget("batch");
+        assertThat(buildRule.getLog(), containsString("batch 0 1 2 3"));
+        assertThat(buildRule.getLog(), containsString("batch 4 5 6 7"));
+        assertThat(buildRule.getLog(), containsString("batch 8 9"));
+    }
+
+    /**
+     * Method testThreadPool.
+     * Nested loops sharing a pool smaller than either of them.
+     */
+    @Test
+    public void testThreadPool() {
+        buildRule.executeTarget("threadpool");
+        for (String x : new String[] {"a", "b", "c"}) {
+            for (int y = 1; y <= 3; y++) {
+                assertThat(buildRule.getLog(), containsString(x + y));
+            }
+        }
+    }
 }
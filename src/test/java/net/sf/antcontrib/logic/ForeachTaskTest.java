@@ -15,9 +15,12 @@
  */
 package net.sf.antcontrib.logic;
 
+import static org.hamcrest.CoreMatchers.both;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.BuildFileRule;
@@ -157,6 +160,114 @@ public class ForeachTaskTest {
         simpleTest("pathAndList");
     }
 
+    /**
+     * Method testParallel.
+     */
+    @Test
+    public void testParallel() {
+        buildRule.executeTarget("parallel");
+        for (int i = 1; i <= 6; i++) {
+            assertThat(buildRule.getLog(),
+                    containsString("Called with param: " + i));
+        }
+    }
+
+    /**
+     * Method testParallelAuto.
+     */
+    @Test
+    public void testParallelAuto() {
+        buildRule.executeTarget("parallelAuto");
+        for (int i = 1; i <= 6; i++) {
+            assertThat(buildRule.getLog(),
+                    containsString("Called with param: " + i));
+        }
+    }
+
+    /**
+     * Method testLightweight.
+     */
+    @Test
+    public void testLightweight() {
+        buildRule.executeTarget("lightweight");
+        for (int i = 1; i <= 3; i++) {
+            assertThat(buildRule.getLog(), containsString("Called with param: "
+                    + i + ", first " + i + ", extra"));
+        }
+    }
+
+    /**
+     * Method testLightweightFailure.
+     */
+    @Test
+    public void testLightweightFailure() {
+        thrown.expect(BuildException.class);
+        thrown.expectMessage("Failed with param: 2");
+        buildRule.executeTarget("lightweightFailure");
+    }
+
+    /**
+     * Method testParallelFailure.
+     */
+    @Test
+    public void testParallelFailure() {
+        thrown.expect(BuildException.class);
+        thrown.expectMessage("Failed with param: 2");
+        buildRule.executeTarget("parallelFailure");
+    }
+
+    /**
+     * Method testParallelFailFast.
+     */
+    @Test
+    public void testParallelFailFast() {
+        thrown.expect(BuildException.class);
+        thrown.expectMessage("Failed with param: 2 [parallel targets:"
+                + " 0 completed, 1 cancelled, 2 never started]");
+        buildRule.executeTarget("parallelFailFast");
+    }
+
+    /**
+     * Method testMetrics.
+     */
+    @Test
+    public void testMetrics() {
+        buildRule.executeTarget("metrics");
+        assertEquals("3", buildRule.getProject().getProperty("m.count"));
+        assertEquals("0", buildRule.getProject().getProperty("m.failed"));
+        assertEquals(2, buildRule.getProject().getProperty("m.slowest")
+                .split(",").length);
+        assertThat(buildRule.getProject().getProperty("report"),
+                both(containsString("<iterations count=\"3\" failed=\"0\""))
+                        .and(containsString("outcome=\"ok\"")));
+    }
+
+    /**
+     * Method testMetricsFailure.
+     * The metrics are set even though the loop fails.
+     */
+    @Test
+    public void testMetricsFailure() {
+        try {
+            buildRule.executeTarget("metricsFailure");
+            fail("target 2 should have failed");
+        } catch (BuildException ex) {
+            assertThat(ex.getMessage(), containsString("Failed with param: 2"));
+        }
+        assertEquals("2", buildRule.getProject().getProperty("m.count"));
+        assertEquals("1", buildRule.getProject().getProperty("m.failed"));
+    }
+
+    /**
+     * Method testOrderedOutput.
+     */
+    @Test
+    public void testOrderedOutput() {
+        buildRule.executeTarget("orderedOutput");
+        assertEquals("start 400end 400start 300end 300"
+                + "start 200end 200start 100end 100", buildRule.getLog());
+    }
+
     /**
      * Method simpleTest.
      *
@@ -15,7 +15,10 @@
  */
 package net.sf.antcontrib.logic;
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildFileRule;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.types.Path;
 
 import org.junit.After;
@@ -27,6 +30,7 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -88,6 +92,15 @@ public class OutOfDateTest {
         buildRule.executeTarget("delete-all");
     }
 
+    /**
+     * Method testDeleteParallel.
+     */
+    @Test
+    public void testDeleteParallel() {
+        buildRule.executeTarget("delete-parallel");
+        assertThat(buildRule.getLog(), containsString("Deleted 3 files"));
+    }
+
     /**
      * Method testDeleteQuiet.
      */
@@ -132,6 +145,161 @@ public class OutOfDateTest {
         assertEquals(3, targets.length);
     }
 
+    /**
+     * Method testSourceOrder.
+     * The sources are output in the order of the sourcefiles, not
+     * newest first.
+     */
+    @Test
+    public void testSourceOrder() {
+        buildRule.executeTarget("source-order");
+        String dir = new File(buildRule.getProject().getProperty("topdir"),
+                "sources").getAbsolutePath();
+        assertEquals(new File(dir, "a").getAbsolutePath() + ","
+                        + new File(dir, "b").getAbsolutePath() + ","
+                        + new File(dir, "c").getAbsolutePath(),
+                buildRule.getProject().getProperty("order.sources"));
+    }
+
+    /**
+     * Method testSharedMapperDir.
+     * Two mappers relative to the same directory, both mapping to t2.
+     */
+    @Test
+    public void testSharedMapperDir() {
+        buildRule.executeTarget("shared-mapper-dir");
+        Project p = buildRule.getProject();
+        String sources = new File(p.getProperty("topdir"), "sources").getAbsolutePath();
+        String targets = new File(p.getProperty("topdir"), "targets").getAbsolutePath();
+        // t1 is newer than s1, s2 is newer than t2
+        assertEquals(new File(sources, "s2").getAbsolutePath(),
+                p.getProperty("shared.sources"));
+        assertEquals(new File(targets, "t2").getAbsolutePath(),
+                p.getProperty("shared.targets"));
+        assertEquals(new File(targets, "t1").getAbsolutePath() + ","
+                        + new File(targets, "t2").getAbsolutePath(),
+                p.getProperty("shared.alltargets"));
+    }
+
+    /**
+     * Method testManyToMany.
+     */
+    @Test
+    public void testManyToMany() {
+        buildRule.executeTarget("many-to-many");
+        Project p = buildRule.getProject();
+        // t3 is missing, so every source is out of date with regard to it
+        assertThat(p.getProperty("many.sources"), containsString("s1"));
+        assertThat(p.getProperty("many.sources"), containsString("s2"));
+        assertThat(p.getProperty("many.targets"), containsString("t3"));
+        assertThat(p.getProperty("many.targets"), containsString("t2"));
+        assertThat(p.getProperty("many.alltargets"), containsString("t2"));
+        // only s2 is newer than t2, and t3 is newer than both
+        assertThat(p.getProperty("present.sources"), not(containsString("s1")));
+        assertThat(p.getProperty("present.sources"), containsString("s2"));
+        assertThat(p.getProperty("present.targets"), containsString("t2"));
+        assertThat(p.getProperty("present.targets"), not(containsString("t3")));
+    }
+
+    /**
+     * Method testThreadCount.
+     */
+    @Test
+    public void testThreadCount() {
+        buildRule.executeTarget("threadcount");
+        Project p = buildRule.getProject();
+        assertThat(p.getProperty("parallel.targets"), containsString(".missing"));
+        assertEquals(p.getProperty("sequential.sources"), p.getProperty("parallel.sources"));
+        assertEquals(p.getProperty("sequential.targets"), p.getProperty("parallel.targets"));
+    }
+
+    /**
+     * Method testChecksum.
+     */
+    @Test
+    public void testChecksum() {
+        buildRule.executeTarget("checksum");
+        Project p = buildRule.getProject();
+        assertNotNull("no digests recorded", p.getProperty("run1"));
+        assertNull("unchanged", p.getProperty("run2"));
+        assertNull("touched", p.getProperty("run3"));
+        assertNotNull("changed", p.getProperty("run4"));
+        assertThat(p.getProperty("run4.sources"), containsString("s1"));
+        assertNotNull("not recorded without a nested task", p.getProperty("run5"));
+        assertNotNull("changed", p.getProperty("run6"));
+        assertNull("recorded on eval", p.getProperty("run7"));
+    }
+
+    /**
+     * Method testManifest.
+     */
+    @Test
+    public void testManifest() {
+        buildRule.executeTarget("manifest");
+        Project p = buildRule.getProject();
+        assertNotNull("targets missing", p.getProperty("run1"));
+        assertNull("nothing changed", p.getProperty("run2"));
+        assertThat(p.getProperty("manifest.contents"), containsString("b.out"));
+        assertNull("a.src not in the change list", p.getProperty("run3"));
+        assertNotNull("a.src changed", p.getProperty("run4"));
+        assertThat(p.getProperty("run4.sources"), containsString("a.src"));
+        assertThat(p.getProperty("run4.sources"), not(containsString("b.src")));
+    }
+
+    /**
+     * Method testManifestSignature.
+     * A manifest written for other mappings must not be used.
+     */
+    @Test
+    public void testManifestSignature() {
+        buildRule.executeTarget("manifest-signature");
+        Project p = buildRule.getProject();
+        assertThat(p.getProperty("run1.targets"), containsString("a.out"));
+        assertThat(p.getProperty("run2.targets"), containsString("other"));
+    }
+
+    /**
+     * Method testWatch.
+     */
+    @Test
+    public void testWatch() {
+        buildRule.executeTarget("watch");
+        assertEquals("true", buildRule.getProject().getProperty("watch.before"));
+        assertThat(buildRule.getFullLog(),
+                containsString("files changed since the last evaluation"));
+    }
+
+    /**
+     * Method testWatchMapper.
+     * The sources that did not change are not mapped again.
+     */
+    @Test
+    public void testWatchMapper() {
+        buildRule.executeTarget("watch-mapper");
+        assertThat(buildRule.getFullLog(), containsString("mapped 1 of 1 sources again"));
+        assertThat(buildRule.getFullLog(), containsString("mapped 0 of 1 sources again"));
+    }
+
+    /**
+     * Method testWatchRefid.
+     */
+    @Test
+    public void testWatchRefid() {
+        buildRule.executeTarget("watch-refid");
+        assertEquals("true", buildRule.getProject().getProperty("watch.newer"));
+        assertNull(buildRule.getProject().getProperty("watch.older"));
+    }
+
+    /**
+     * Method testPooledParallel.
+     */
+    @Test
+    public void testPooledParallel() {
+        buildRule.executeTarget("pooled-parallel");
+        assertNotNull(buildRule.getProject().getProperty("pooled.1"));
+        assertNotNull(buildRule.getProject().getProperty("pooled.2"));
+    }
+
     /**
      * Method testEmptySources.
      */
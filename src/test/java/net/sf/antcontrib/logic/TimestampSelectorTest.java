@@ -15,6 +15,8 @@
  */
 package net.sf.antcontrib.logic;
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildFileRule;
 import org.junit.After;
 import org.junit.Before;
@@ -22,6 +24,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -65,6 +68,39 @@ public class TimestampSelectorTest {
         assertThat(buildRule.getLog(), containsString("file2.txt"));
     }
 
+    /**
+     * Method testFileStampCount.
+     */
+    @Test
+    public void testFileStampCount() {
+        buildRule.executeTarget("filestamp.count");
+        String dir = buildRule.getProject().getProperty("test.dir");
+        assertEquals(new File(dir, "file3.txt") + "," + new File(dir, "file1.txt"),
+                buildRule.getProject().getProperty("eldest.tstamp"));
+    }
+
+    /**
+     * Method testFileStampRC.
+     */
+    @Test
+    public void testFileStampRC() {
+        buildRule.executeTarget("filestamp.rc");
+        String dir = buildRule.getProject().getProperty("test.dir");
+        assertEquals(new File(dir, "file2.txt").getPath(),
+                buildRule.getProject().getProperty("rc.tstamp"));
+    }
+
+    /**
+     * Method testFileStampDir.
+     */
+    @Test
+    public void testFileStampDir() {
+        buildRule.executeTarget("filestamp.dir");
+        String dir = buildRule.getProject().getProperty("test.dir");
+        assertEquals(new File(dir, "dir1/file3.txt") + "," + new File(dir, "file2.txt"),
+                buildRule.getProject().getProperty("dir.tstamp"));
+    }
+
     /**
      * Method testDirStampDL.
      */
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.BuildFileRule;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testcase for AntPerformanceListener.
+ */
+public class AntPerformanceListenerTest {
+    @Rule
+    public BuildFileRule buildRule = new BuildFileRule();
+
+    /**
+     * Method setUp.
+     */
+    @Before
+    public void setUp() {
+        buildRule.configureProject("src/test/resources/perf/performance.xml");
+    }
+
+    /**
+     * Method tearDown.
+     */
+    @After
+    public void tearDown() {
+        buildRule.executeTarget("teardown");
+    }
+
+    /**
+     * Method run.
+     *
+     * @param target String
+     * @return the statistics written by the listener
+     * @throws IOException if the statistics cannot be read
+     */
+    private String run(String target) throws IOException {
+        Project project = buildRule.getProject();
+        project.addBuildListener(new AntPerformanceListener());
+        project.fireBuildStarted();
+        project.executeTarget(target);
+        project.fireBuildFinished(null);
+        return read("performance.log");
+    }
+
+    /**
+     * Method read.
+     *
+     * @param property the property naming the file
+     * @return the contents of the file
+     * @throws IOException if the file cannot be read
+     */
+    private String read(String property) throws IOException {
+        FileReader in = new FileReader(new File(buildRule.getProject().getProperty(property)));
+        try {
+            return FileUtils.readFully(in);
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+
+    /**
+     * Method micros.
+     *
+     * @param stats the statistics written by the listener
+     * @param key   the target or task, as it is listed
+     * @return the time listed for it, in microseconds
+     */
+    private long micros(String stats, String key) {
+        String lSep = System.getProperty("line.separator");
+        Matcher m = Pattern.compile(Pattern.quote(lSep + key + ": ")
+                + "(\\d+)\\.(\\d{6}) sec" + Pattern.quote(lSep)).matcher(stats);
+        assertTrue(key + " not listed in seconds to the microsecond", m.find());
+        return Long.parseLong(m.group(1)) * 1000000 + Long.parseLong(m.group(2));
+    }
+
+    /**
+     * Method testTotals.
+     * A task nested in a task of the same name is counted once.
+     *
+     * @throws IOException if the statistics cannot be read
+     */
+    @Test
+    public void testTotals() throws IOException {
+        String stats = run("nested");
+        long target = micros(stats, "perf.nested");
+        long sequential = micros(stats, "perf.nested.sequential");
+        long sleep = micros(stats, "perf.nested.sleep");
+        assertTrue("slept " + sleep, sleep >= 300000);
+        assertTrue(sequential + " counted twice", sequential >= sleep && sequential <= target);
+        assertTrue(target < 2 * sleep);
+    }
+
+    /**
+     * Method testProfile.
+     *
+     * @throws IOException if the statistics cannot be read
+     */
+    @Test
+    public void testProfile() throws IOException {
+        String stats = run("profile");
+        String lSep = System.getProperty("line.separator");
+        assertThat(stats, containsString("-- Profile --"));
+        assertThat(stats, containsString(": perf" + lSep));
+        // the macro run three times by the loop, under the loop
+        assertThat(stats, containsString(lSep + "3, "));
+        assertThat(stats, containsString(":         step" + lSep));
+        // the target called in a sub-project, under the task calling it
+        assertThat(stats, containsString(":       perf" + lSep));
+        assertThat(stats, containsString(":         called" + lSep));
+    }
+
+    /**
+     * Method testFormats.
+     *
+     * @throws IOException if the statistics cannot be read
+     */
+    @Test
+    public void testFormats() throws IOException {
+        Project project = buildRule.getProject();
+        String dir = project.getProperty("test.dir");
+        project.setProperty("performance.json", dir + "/performance.json");
+        project.setProperty("performance.csv", dir + "/performance.csv");
+        project.setProperty("performance.trace", dir + "/performance.trace");
+        run("parallel");
+
+        String json = read("performance.json");
+        assertThat(json, containsString("{\"kind\":\"target\",\"name\":\"parallel\",\"calls\":1,"));
+        assertThat(json, containsString("{\"kind\":\"task\",\"name\":\"step\",\"calls\":2,"));
+
+        String csv = read("performance.csv");
+        assertThat(csv, containsString("path,kind,depth,calls,"));
+        assertThat(csv, containsString("/perf/parallel/parallel/step,task,3,2,"));
+
+        // one span per run, the two steps on threads of their own
+        String trace = read("performance.trace");
+        assertThat(trace, containsString("\"traceEvents\":["));
+        assertThat(trace, containsString("\"ph\":\"X\""));
+        assertEquals(2, trace.split("\"cat\":\"task\",\"name\":\"step\"").length - 1);
+        assertEquals(3, trace.split("\"name\":\"thread_name\"").length - 1);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.perf;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.Echo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Testcase for CallTree.
+ */
+public class CallTreeTest {
+    /**
+     * Field RUNS.
+     */
+    private static final int RUNS = 20000;
+
+    /**
+     * Method task.
+     *
+     * @param project Project
+     * @param target  Target
+     * @param name    String
+     * @return a task of the target
+     */
+    private static Task task(Project project, Target target, String name) {
+        Task task = new Echo();
+        task.setProject(project);
+        task.setOwningTarget(target);
+        task.setTaskName(name);
+        return task;
+    }
+
+    /**
+     * Method testOtherThreads.
+     * Tasks started on other threads while the thread running their
+     * target keeps starting and ending tasks of its own.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test(timeout = 30000)
+    public void testOtherThreads() throws InterruptedException {
+        final CallTree tree = new CallTree();
+        final Project project = new Project();
+        project.setName("p");
+        final Target target = new Target();
+        target.setProject(project);
+        target.setName("t");
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        tree.targetStarted(target, 0);
+        Thread[] workers = new Thread[4];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = new Thread() {
+                public void run() {
+                    try {
+                        Task task = task(project, target, "worker");
+                        for (int i = 0; i < RUNS; i++) {
+                            tree.taskStarted(task, i);
+                            tree.finished(task, i + 1);
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        Task own = task(project, target, "own");
+        for (int i = 0; i < RUNS; i++) {
+            tree.taskStarted(own, i);
+            tree.finished(own, i + 1);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        tree.finished(target, RUNS);
+        assertNull(error.get());
+
+        long workerRuns = 0;
+        for (CallTree.Node p : tree.getRoot().getChildren()) {
+            workerRuns += count(p, "worker");
+        }
+        assertEquals(workers.length * RUNS, workerRuns);
+    }
+
+    /**
+     * Method count.
+     *
+     * @param node CallTree.Node
+     * @param name String
+     * @return the runs of the tasks of the name under the node
+     */
+    private static long count(CallTree.Node node, String name) {
+        long count = name.equals(node.getName()) ? node.getCount() : 0;
+        for (CallTree.Node child : node.getChildren()) {
+            count += count(child, name);
+        }
+        return count;
+    }
+}
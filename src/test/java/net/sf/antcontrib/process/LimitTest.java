@@ -55,4 +55,14 @@ public class LimitTest {
         buildRule.executeTarget("test2");
         assertThat(buildRule.getLog(), containsString("_passed_"));
     }
+
+    /**
+     * Method testThreadPool.
+     */
+    @Test
+    public void testThreadPool() {
+        buildRule.executeTarget("threadpool");
+        assertThat(buildRule.getLog(), not(containsString("_failed_")));
+        assertThat(buildRule.getLog(), containsString("_passed_"));
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2001-2004 Ant-Contrib project.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.antcontrib.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testcase for WorkQueue.
+ */
+public class WorkQueueTest {
+    /**
+     * Method testTaskThrows.
+     * A task throwing must not strand the tasks queued after it.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test(timeout = 10000)
+    public void testTaskThrows() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            WorkQueue queue = new WorkQueue(executor, 1, 0, false);
+            final AtomicInteger ran = new AtomicInteger();
+            for (int i = 0; i < 10; i++) {
+                final int n = i;
+                queue.submit(new Runnable() {
+                    public void run() {
+                        if (n == 0) {
+                            throw new RuntimeException("iteration " + n);
+                        }
+                        ran.incrementAndGet();
+                    }
+                });
+            }
+            queue.await();
+            assertEquals(9, ran.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}